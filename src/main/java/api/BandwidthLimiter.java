@@ -0,0 +1,129 @@
+package api;
+
+import java.io.InterruptedIOException;
+
+/**
+ * The BandwidthLimiter class is a token bucket limiting the rate at which transfers send or receive data.
+ * A single limiter is usually shared by all transfers of the JVM (see shared()), so that they split one configured
+ * bandwidth. Interactive transfers take precedence: bulk transfers only get bandwidth that no interactive transfer
+ * is waiting for. Rate and burst can be changed at any time, and take effect for transfers already running
+ */
+public class BandwidthLimiter {
+
+    /**
+     * Priority class of a transfer
+     */
+    public enum Priority {
+        /**
+         * Latency sensitive transfers, served first
+         */
+        INTERACTIVE,
+        /**
+         * Bulk transfers, using the bandwidth left over by interactive transfers
+         */
+        BULK
+    }
+
+    private static final BandwidthLimiter SHARED = new BandwidthLimiter(0);
+
+    // volatile so that acquire can skip locking while there is no limit
+    private volatile long bytesPerSecond;
+    private long burstBytes;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private int interactiveWaiting;
+    private int bulkWaiting;
+
+    /**
+     * Creates new BandwidthLimiter, allowing a burst of one second worth of data
+     * @param bytesPerSecond Rate limit, or 0 for no limit
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * @return Limiter shared by all transfers in the JVM. It doesn't limit anything until a rate is set
+     */
+    public static BandwidthLimiter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Changes the rate limit, allowing a burst of one second worth of data
+     * @param bytesPerSecond Rate limit, or 0 for no limit
+     */
+    public void setRate(long bytesPerSecond) {
+        setRate(bytesPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * Changes the rate limit
+     * @param bytesPerSecond Rate limit, or 0 for no limit
+     * @param burstBytes Maximum number of bytes which can be transferred at once after an idle period
+     */
+    public synchronized void setRate(long bytesPerSecond, long burstBytes) {
+        refill();
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.burstBytes = Math.max(1, burstBytes);
+        this.tokens = Math.min(this.tokens, this.burstBytes);
+        notifyAll();
+    }
+
+    /**
+     * @return Rate limit in bytes per second, or 0 if there is no limit
+     */
+    public long getRate() {
+        return this.bytesPerSecond;
+    }
+
+    /**
+     * Waits until a transfer is allowed to send or receive a number of bytes
+     * @param bytes Number of bytes to transfer
+     * @param priority Priority class of the transfer
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(int bytes, Priority priority) throws InterruptedIOException {
+        if (this.bytesPerSecond == 0)
+            return;
+        acquireLimited(bytes, priority == Priority.INTERACTIVE);
+    }
+
+    private synchronized void acquireLimited(int bytes, boolean interactive) throws InterruptedIOException {
+        if (interactive)
+            this.interactiveWaiting++;
+        else
+            this.bulkWaiting++;
+        try {
+            while (this.bytesPerSecond > 0) {
+                refill();
+                boolean served = interactive || this.interactiveWaiting == 0;
+                // requests larger than the burst go into debt, instead of never being served
+                if (served && this.tokens >= Math.min(bytes, this.burstBytes)) {
+                    this.tokens -= bytes;
+                    return;
+                }
+                long waitMillis = served
+                        ? (long) Math.ceil((Math.min(bytes, this.burstBytes) - this.tokens) * 1000 / this.bytesPerSecond)
+                        : 100;
+                wait(Math.max(1, waitMillis));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        } finally {
+            if (!interactive)
+                this.bulkWaiting--;
+            // only bulk transfers wait for interactive ones, and only for the last of them
+            else if (--this.interactiveWaiting == 0 && this.bulkWaiting > 0)
+                notifyAll();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (this.bytesPerSecond > 0)
+            this.tokens = Math.min(this.burstBytes, this.tokens + (now - this.lastRefill) / 1e9 * this.bytesPerSecond);
+        this.lastRefill = now;
+    }
+}
@@ -4,9 +4,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.Keys;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.json.JSONObject;
 import util.BlindsendUtil;
+import util.Cancellation;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -19,6 +20,11 @@ public class BlindsendAPI {
     final static Logger LOGGER = LogManager.getLogger(BlindsendAPI.class);
 
     private String endpoint;
+    private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.shared();
+    private BandwidthLimiter.Priority transferPriority = BandwidthLimiter.Priority.INTERACTIVE;
+    private int connectTimeoutMillis = 30000;
+    private int readTimeoutMillis = 60000;
+    private Cancellation cancellation = Cancellation.NONE;
 
     final String link = "link";
     final String linkId = "link_id";
@@ -36,6 +42,25 @@ public class BlindsendAPI {
     public BlindsendAPI(String endpoint) {
         this.endpoint = endpoint;
     }
+
+    /**
+     * Creates an API instance with the same configuration, whose requests are made on behalf of one transfer.
+     * Requests fail with TransferCancelledException once the transfer is cancelled, their timeouts don't extend
+     * past its deadline, and their connections are closed as soon as it is cancelled
+     * @param cancellation Cancellation handle of the transfer
+     * @return API instance for the transfer
+     */
+    public BlindsendAPI withCancellation(Cancellation cancellation) {
+        if (cancellation == Cancellation.NONE)
+            return this;
+        BlindsendAPI api = new BlindsendAPI(this.endpoint);
+        api.bandwidthLimiter = this.bandwidthLimiter;
+        api.transferPriority = this.transferPriority;
+        api.connectTimeoutMillis = this.connectTimeoutMillis;
+        api.readTimeoutMillis = this.readTimeoutMillis;
+        api.cancellation = cancellation;
+        return api;
+    }
   
     /**
      * Calls blindsend API to obtain link Id.
@@ -45,23 +70,27 @@ public class BlindsendAPI {
     public String getLinkId() throws IOException {
         URL urlForGetRequest = new URL(endpoint + "/request/init-link-id");
         String readLine = null;
-        HttpURLConnection conection = (HttpURLConnection) urlForGetRequest.openConnection();
-        conection.setRequestMethod("GET");
-
-        int responseCode = conection.getResponseCode();
-        LOGGER.info("/request/init-link-id Response code " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(conection.getInputStream()));
-            StringBuffer response = new StringBuffer();
-            while ((readLine = in .readLine()) != null) {
-                response.append(readLine);
-            } in .close();
-            JSONObject json = new JSONObject(response.toString());
-            String linkId = json.getString(this.linkId);
-            return linkId;
-        } else {
-            throw new RuntimeException("/request/init-link-id on BlindsendAPI failed");
+        HttpURLConnection conection = openConnection(urlForGetRequest);
+        try {
+            conection.setRequestMethod("GET");
+
+            int responseCode = conection.getResponseCode();
+            LOGGER.info("/request/init-link-id Response code " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(conection.getInputStream()));
+                StringBuffer response = new StringBuffer();
+                while ((readLine = in .readLine()) != null) {
+                    response.append(readLine);
+                } in .close();
+                JSONObject json = new JSONObject(response.toString());
+                String linkId = json.getString(this.linkId);
+                return linkId;
+            } else {
+                throw new BlindsendApiException("/request/init-link-id", responseCode);
+            }
+        } finally {
+            release(conection);
         }
     }
 
@@ -88,33 +117,37 @@ public class BlindsendAPI {
                 "   \"" + this.kdfMemLimit +"\": " + kdfMemLimit + " \n}";
 
         URL obj = new URL(endpoint + "/request/init-session");
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
-        postConnection.setRequestMethod("POST");
-        postConnection.setRequestProperty("Content-Type", "application/json");
-        postConnection.setDoOutput(true);
-
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS.getBytes());
-        os.flush();
-        os.close();
-
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/init-session Response Code :  " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    postConnection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in .readLine()) != null) {
-                response.append(inputLine);
-            } in .close();
-            JSONObject json = new JSONObject(response.toString());
-            String link = json.getString(this.link);
-            LOGGER.info("Obtained link from /init-session: " + link);
-            return link;
-        } else {
-            throw new RuntimeException("/request/init-session on BlindsendAPI failed");
+        HttpURLConnection postConnection = openConnection(obj);
+        try {
+            postConnection.setRequestMethod("POST");
+            postConnection.setRequestProperty("Content-Type", "application/json");
+            postConnection.setDoOutput(true);
+
+            postConnection.setDoOutput(true);
+            OutputStream os = postConnection.getOutputStream();
+            os.write(POST_PARAMS.getBytes());
+            os.flush();
+            os.close();
+
+            int responseCode = postConnection.getResponseCode();
+            LOGGER.info("/request/init-session Response Code :  " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        postConnection.getInputStream()));
+                String inputLine;
+                StringBuffer response = new StringBuffer();
+                while ((inputLine = in .readLine()) != null) {
+                    response.append(inputLine);
+                } in .close();
+                JSONObject json = new JSONObject(response.toString());
+                String link = json.getString(this.link);
+                LOGGER.info("Obtained link from /init-session: " + link);
+                return link;
+            } else {
+                throw new BlindsendApiException("/request/init-session", responseCode);
+            }
+        } finally {
+            release(postConnection);
         }
     }
 
@@ -130,32 +163,36 @@ public class BlindsendAPI {
                 "   \"" + this.linkId + "\": \"" + linkId + "\" \n}";
 
         URL obj = new URL(endpoint + "/request/prepare-upload");
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
-        postConnection.setRequestMethod("POST");
-        postConnection.setRequestProperty("Content-Type", "application/json");
-        postConnection.setDoOutput(true);
-
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS.getBytes());
-        os.flush();
-        os.close();
-
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/prepare-upload Response Code :  " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    postConnection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in .readLine()) != null) {
-                response.append(inputLine);
-            } in .close();
-            JSONObject json = new JSONObject(response.toString());
-            String uploadId = json.getString(this.uploadId);
-            return uploadId;
-        } else {
-            throw new RuntimeException("/request/prepare-upload on BlindsendAPI failed");
+        HttpURLConnection postConnection = openConnection(obj);
+        try {
+            postConnection.setRequestMethod("POST");
+            postConnection.setRequestProperty("Content-Type", "application/json");
+            postConnection.setDoOutput(true);
+
+            postConnection.setDoOutput(true);
+            OutputStream os = postConnection.getOutputStream();
+            os.write(POST_PARAMS.getBytes());
+            os.flush();
+            os.close();
+
+            int responseCode = postConnection.getResponseCode();
+            LOGGER.info("/request/prepare-upload Response Code :  " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        postConnection.getInputStream()));
+                String inputLine;
+                StringBuffer response = new StringBuffer();
+                while ((inputLine = in .readLine()) != null) {
+                    response.append(inputLine);
+                } in .close();
+                JSONObject json = new JSONObject(response.toString());
+                String uploadId = json.getString(this.uploadId);
+                return uploadId;
+            } else {
+                throw new BlindsendApiException("/request/prepare-upload", responseCode);
+            }
+        } finally {
+            release(postConnection);
         }
     }
 
@@ -167,35 +204,48 @@ public class BlindsendAPI {
      * @throws IOException
      */
     public void uploadFile(String linkId, String uploadId, String filePath) throws IOException{
-        byte[] fileAsBytes = FileUtils.readFileToByteArray(new File(filePath));
-        LOGGER.info("Loaded file to send to API " + filePath);
-        final byte[] POST_PARAMS = fileAsBytes;
+        File file = new File(filePath);
+        LOGGER.info("Streaming file to send to API " + filePath);
+
+        UploadStream os = openUpload(linkId, uploadId, file.length());
+        try {
+            FileUtils.copyFile(file, os);
+        } catch (IOException | RuntimeException e) {
+            os.abort();
+            throw e;
+        }
+        os.close();
+    }
 
+    /**
+     * Calls blindsend API to upload an encrypted file written into the returned stream, so that the file can be
+     * uploaded while it is being encrypted. Closing the stream completes the upload
+     * @param linkId Link id
+     * @param uploadId Upload id
+     * @param length Length of the encrypted file in bytes, or -1 if it isn't known in advance, in which case the
+     *               file is uploaded with chunked transfer encoding
+     * @return Stream of the request body
+     * @throws IOException
+     */
+    public UploadStream openUpload(String linkId, String uploadId, long length) throws IOException {
         URL obj = new URL(endpoint + "/request/send-file/" + linkId + "/" + uploadId);
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
+        HttpURLConnection postConnection = openConnection(obj);
         postConnection.setRequestMethod("POST");
         postConnection.setRequestProperty("Content-Type", "application/json");
         postConnection.setDoOutput(true);
-
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS);
-        os.flush();
-        os.close();
-
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/send-file Response Code :  " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    postConnection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in .readLine()) != null) {
-                response.append(inputLine);
-            } in .close();
-        } else {
-            throw new RuntimeException("/request/send-file on BlindsendAPI failed");
+        if (length >= 0)
+            postConnection.setFixedLengthStreamingMode(length);
+        else
+            postConnection.setChunkedStreamingMode(ThrottledOutputStream.SLICE);
+
+        OutputStream body;
+        try {
+            body = postConnection.getOutputStream();
+        } catch (IOException | RuntimeException e) {
+            release(postConnection);
+            throw e;
         }
+        return new UploadStream(this.cancellation.wrap(new ThrottledOutputStream(body, this.bandwidthLimiter, this.transferPriority)), postConnection, this.cancellation);
     }
 
     /**
@@ -224,29 +274,33 @@ public class BlindsendAPI {
                 "   \"" + this.fileSize + "\": " + fileSize + " \n}";
 
         URL obj = new URL(endpoint + "/request/finish-upload");
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
-        postConnection.setRequestMethod("POST");
-        postConnection.setRequestProperty("Content-Type", "application/json");
-        postConnection.setDoOutput(true);
-
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS.getBytes());
-        os.flush();
-        os.close();
-
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/finish-upload Response Code :  " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    postConnection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in .readLine()) != null) {
-                response.append(inputLine);
-            } in .close();
-        } else {
-            throw new RuntimeException("/request/finish-upload on BlindsendAPI failed");
+        HttpURLConnection postConnection = openConnection(obj);
+        try {
+            postConnection.setRequestMethod("POST");
+            postConnection.setRequestProperty("Content-Type", "application/json");
+            postConnection.setDoOutput(true);
+
+            postConnection.setDoOutput(true);
+            OutputStream os = postConnection.getOutputStream();
+            os.write(POST_PARAMS.getBytes());
+            os.flush();
+            os.close();
+
+            int responseCode = postConnection.getResponseCode();
+            LOGGER.info("/request/finish-upload Response Code :  " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        postConnection.getInputStream()));
+                String inputLine;
+                StringBuffer response = new StringBuffer();
+                while ((inputLine = in .readLine()) != null) {
+                    response.append(inputLine);
+                } in .close();
+            } else {
+                throw new BlindsendApiException("/request/finish-upload", responseCode);
+            }
+        } finally {
+            release(postConnection);
         }
     }
 
@@ -261,32 +315,36 @@ public class BlindsendAPI {
                 "   \"" + this.linkId + "\": \"" + linkId + "\" \n}";
 
         URL obj = new URL(endpoint + "/request/get-file-metadata");
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
-        postConnection.setRequestMethod("POST");
-        postConnection.setRequestProperty("Content-Type", "application/json");
-        postConnection.setDoOutput(true);
-
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS.getBytes());
-        os.flush();
-        os.close();
-
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/get-file-metadata Response code " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    postConnection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in .readLine()) != null) {
-                response.append(inputLine);
-            } in .close();
-            JSONObject json = new JSONObject(response.toString());
-            String fileName = json.getString(this.fileName);
-            return fileName;
-        } else {
-            throw new RuntimeException("/request/get-file-metadata on BlindsendAPI failed");
+        HttpURLConnection postConnection = openConnection(obj);
+        try {
+            postConnection.setRequestMethod("POST");
+            postConnection.setRequestProperty("Content-Type", "application/json");
+            postConnection.setDoOutput(true);
+
+            postConnection.setDoOutput(true);
+            OutputStream os = postConnection.getOutputStream();
+            os.write(POST_PARAMS.getBytes());
+            os.flush();
+            os.close();
+
+            int responseCode = postConnection.getResponseCode();
+            LOGGER.info("/request/get-file-metadata Response code " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        postConnection.getInputStream()));
+                String inputLine;
+                StringBuffer response = new StringBuffer();
+                while ((inputLine = in .readLine()) != null) {
+                    response.append(inputLine);
+                } in .close();
+                JSONObject json = new JSONObject(response.toString());
+                String fileName = json.getString(this.fileName);
+                return fileName;
+            } else {
+                throw new BlindsendApiException("/request/get-file-metadata", responseCode);
+            }
+        } finally {
+            release(postConnection);
         }
     }
 
@@ -301,42 +359,46 @@ public class BlindsendAPI {
                 "   \"" + this.linkId + "\": \"" + linkId + "\" \n}";
 
         URL obj = new URL(endpoint + "/request/get-keys");
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
-        postConnection.setRequestMethod("POST");
-        postConnection.setRequestProperty("Content-Type", "application/json");
-        postConnection.setDoOutput(true);
-
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS.getBytes());
-        os.flush();
-        os.close();
-
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/get-keys Response Code :  " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(
-                    postConnection.getInputStream()));
-            String inputLine;
-            StringBuffer response = new StringBuffer();
-            while ((inputLine = in .readLine()) != null) {
-                response.append(inputLine);
-            } in .close();
-            JSONObject json = new JSONObject(response.toString());
-            String pkSenderHex = json.getString(this.pk2Resp);
-            String kdfSalt = json.getString(this.kdfSalt);
-            int kdfOps = json.getInt(this.kdfOps);
-            int kdfMemLimit = json.getInt(this.kdfMemLimit);
-            String streamEncryptionHeader = json.getString(this.streamEncHeader);
-            return new Keys(
-                    BlindsendUtil.toByte(pkSenderHex),
-                    BlindsendUtil.toByte(kdfSalt),
-                    kdfOps,
-                    kdfMemLimit,
-                    streamEncryptionHeader
-            );
-        } else {
-            throw new RuntimeException("/request/get-keys on BlindsendAPI failed");
+        HttpURLConnection postConnection = openConnection(obj);
+        try {
+            postConnection.setRequestMethod("POST");
+            postConnection.setRequestProperty("Content-Type", "application/json");
+            postConnection.setDoOutput(true);
+
+            postConnection.setDoOutput(true);
+            OutputStream os = postConnection.getOutputStream();
+            os.write(POST_PARAMS.getBytes());
+            os.flush();
+            os.close();
+
+            int responseCode = postConnection.getResponseCode();
+            LOGGER.info("/request/get-keys Response Code :  " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        postConnection.getInputStream()));
+                String inputLine;
+                StringBuffer response = new StringBuffer();
+                while ((inputLine = in .readLine()) != null) {
+                    response.append(inputLine);
+                } in .close();
+                JSONObject json = new JSONObject(response.toString());
+                String pkSenderHex = json.getString(this.pk2Resp);
+                String kdfSalt = json.getString(this.kdfSalt);
+                int kdfOps = json.getInt(this.kdfOps);
+                int kdfMemLimit = json.getInt(this.kdfMemLimit);
+                String streamEncryptionHeader = json.getString(this.streamEncHeader);
+                return new Keys(
+                        BlindsendUtil.toByte(pkSenderHex),
+                        BlindsendUtil.toByte(kdfSalt),
+                        kdfOps,
+                        kdfMemLimit,
+                        streamEncryptionHeader
+                );
+            } else {
+                throw new BlindsendApiException("/request/get-keys", responseCode);
+            }
+        } finally {
+            release(postConnection);
         }
     }
     
@@ -348,32 +410,163 @@ public class BlindsendAPI {
      * @throws IOException
      */
     public File downloadFile(String linkId, String downloadPath) throws IOException {
+        try (InputStream in = openDownload(linkId)) {
+            FileUtils.copyInputStreamToFile(in, new File(downloadPath));
+        }
+        LOGGER.info("File obtained from the API saved to " + downloadPath);
+        return new File(downloadPath);
+    }
+
+    /**
+     * Calls blindsend API to download encrypted file, and returns the response body as a stream, so that the file
+     * can be processed while it is being downloaded
+     * @param linkId Link id
+     * @return Stream of the encrypted file. Closing it before reading it to the end aborts the download
+     * @throws IOException
+     */
+    public InputStream openDownload(String linkId) throws IOException {
+        return openBody(requestFile(linkId, null));
+    }
+
+    /**
+     * Calls blindsend API to download a range of an encrypted file
+     * @param linkId Link id
+     * @param offset Position of the first byte of the range in the encrypted file
+     * @param length Length of the range
+     * @return Stream of the range, ending at the end of the range or of the file
+     * @throws RangeNotSupportedException if the server answers a range not starting at 0 with the whole file, since
+     * skipping to the range would download everything before it
+     * @throws IOException
+     */
+    public InputStream openDownload(String linkId, long offset, long length) throws IOException {
+        HttpURLConnection postConnection = requestFile(linkId, "bytes=" + offset + "-" + (offset + length - 1));
+        if (postConnection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+            String contentRange = postConnection.getHeaderField("Content-Range");
+            if (contentRange == null || !contentRange.trim().startsWith("bytes " + offset + "-")) {
+                release(postConnection);
+                postConnection.disconnect();
+                throw new IOException("/request/get-file on BlindsendAPI returned range " + contentRange + " instead of the one starting at " + offset);
+            }
+            return openBody(postConnection);
+        }
+        if (offset > 0) {
+            release(postConnection);
+            postConnection.disconnect();
+            throw new RangeNotSupportedException("/request/get-file");
+        }
+        return new BoundedInputStream(openBody(postConnection), length);
+    }
+
+    /**
+     * Calls blindsend API to obtain the size of an encrypted file, without downloading it
+     * @param linkId Link id
+     * @return Size of the encrypted file in bytes
+     * @throws IOException
+     */
+    public long getDownloadSize(String linkId) throws IOException {
+        HttpURLConnection postConnection = requestFile(linkId, "bytes=0-0");
+        try {
+            String contentRange = postConnection.getHeaderField("Content-Range");
+            if (postConnection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL && contentRange != null && !contentRange.endsWith("/*"))
+                return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+            if (postConnection.getResponseCode() == HttpURLConnection.HTTP_OK && postConnection.getContentLengthLong() >= 0)
+                return postConnection.getContentLengthLong();
+            throw new IOException("/request/get-file on BlindsendAPI returned no file size");
+        } finally {
+            release(postConnection);
+            postConnection.disconnect();
+        }
+    }
+
+    private HttpURLConnection requestFile(String linkId, String range) throws IOException {
         final String POST_PARAMS = "{\n" +
                 "   \"" + this.linkId + "\": \"" + linkId + "\" \n}";
 
         URL obj = new URL(endpoint + "/request/get-file");
-        HttpURLConnection postConnection = (HttpURLConnection) obj.openConnection();
-        postConnection.setRequestMethod("POST");
-        postConnection.setRequestProperty("Content-Type", "application/json");
-        postConnection.setDoOutput(true);
+        HttpURLConnection postConnection = openConnection(obj);
+        try {
+            postConnection.setRequestMethod("POST");
+            postConnection.setRequestProperty("Content-Type", "application/json");
+            if (range != null)
+                postConnection.setRequestProperty("Range", range);
+            postConnection.setDoOutput(true);
+
+            OutputStream os = postConnection.getOutputStream();
+            os.write(POST_PARAMS.getBytes());
+            os.flush();
+            os.close();
+
+            int responseCode = postConnection.getResponseCode();
+            LOGGER.info("/request/get-file Response Code :  " + responseCode);
+            if (responseCode == HttpURLConnection.HTTP_OK || (range != null && responseCode == HttpURLConnection.HTTP_PARTIAL)) {
+                // the connection stays registered until the response is read, see openBody
+                return postConnection;
+            } else {
+                throw new BlindsendApiException("/request/get-file", responseCode);
+            }
+        } catch (IOException | RuntimeException e) {
+            release(postConnection);
+            throw e;
+        }
+    }
 
-        postConnection.setDoOutput(true);
-        OutputStream os = postConnection.getOutputStream();
-        os.write(POST_PARAMS.getBytes());
-        os.flush();
-        os.close();
+    /**
+     * Opens the response body of a file request. The connection is unregistered from the cancellation handle when the
+     * stream is closed
+     */
+    private InputStream openBody(final HttpURLConnection connection) throws IOException {
+        InputStream body;
+        try {
+            body = connection.getInputStream();
+        } catch (IOException | RuntimeException e) {
+            release(connection);
+            throw e;
+        }
+        InputStream releasing = new FilterInputStream(body) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release(connection);
+                }
+            }
+        };
+        return this.cancellation.wrap(new BufferedInputStream(new ThrottledInputStream(releasing, this.bandwidthLimiter, this.transferPriority)));
+    }
+
+    /**
+     * Sets the limiter that file uploads and downloads go through. By default, the limiter shared by the whole JVM
+     * is used
+     * @param bandwidthLimiter Bandwidth limiter
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
 
+    /**
+     * Sets the priority class of the file uploads and downloads made with this API instance. Transfers with different
+     * priorities should use different API instances. The default priority is INTERACTIVE
+     * @param transferPriority Priority class
+     */
+    public void setTransferPriority(BandwidthLimiter.Priority transferPriority) {
+        this.transferPriority = transferPriority;
+    }
 
-        int responseCode = postConnection.getResponseCode();
-        LOGGER.info("/request/get-file Response Code :  " + responseCode);
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            byte[] fileBytes = IOUtils.toByteArray(postConnection.getInputStream());
-            FileUtils.writeByteArrayToFile(new File(downloadPath), fileBytes);
-            LOGGER.info("File obtained from the API saved to " + downloadPath);
-            return new File(downloadPath);
-        } else {
-            throw new RuntimeException("/request/get-file on BlindsendAPI failed");
-        }
+    /**
+     * Sets the timeout for establishing connections to the API
+     * @param connectTimeoutMillis Timeout in milliseconds, or 0 for none. 30 seconds by default
+     */
+    public void setConnectTimeout(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Sets the timeout for every read from the API, so that a stalled response fails instead of blocking forever
+     * @param readTimeoutMillis Timeout in milliseconds, or 0 for none. 60 seconds by default
+     */
+    public void setReadTimeout(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
     }
 
     /**
@@ -383,4 +576,46 @@ public class BlindsendAPI {
     public String getEndpoint(){
         return this.endpoint;
     }
+
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        this.cancellation.check();
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(this.cancellation.timeout(this.connectTimeoutMillis));
+        connection.setReadTimeout(this.cancellation.timeout(this.readTimeoutMillis));
+        // the connection is unregistered by release once its request or response stream completes, so that a
+        // handle shared by many transfers doesn't keep finished connections
+        this.cancellation.onCancel(new Disconnect(connection));
+        return connection;
+    }
+
+    private void release(HttpURLConnection connection) {
+        this.cancellation.removeOnCancel(new Disconnect(connection));
+    }
+
+    /**
+     * Closes a connection when its transfer is cancelled. Two instances are equal when they close the same
+     * connection, so that a completed request can unregister its connection
+     */
+    static final class Disconnect implements Closeable {
+        private final HttpURLConnection connection;
+
+        Disconnect(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() {
+            this.connection.disconnect();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Disconnect && ((Disconnect) o).connection == this.connection;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.connection);
+        }
+    }
 }
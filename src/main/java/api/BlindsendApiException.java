@@ -0,0 +1,30 @@
+package api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when blindsend API answers a request with an error
+ */
+public class BlindsendApiException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+
+    /**
+     * Creates new BlindsendApiException
+     * @param request Path of the failed request
+     * @param responseCode HTTP response code
+     */
+    public BlindsendApiException(String request, int responseCode) {
+        super(request + " on BlindsendAPI failed with response code " + responseCode);
+        this.responseCode = responseCode;
+    }
+
+    /**
+     * @return HTTP response code
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+}
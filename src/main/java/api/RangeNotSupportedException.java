@@ -0,0 +1,19 @@
+package api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when blindsend API answers a request for a range of a file with the whole file
+ */
+public class RangeNotSupportedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new RangeNotSupportedException
+     * @param request Path of the request
+     */
+    public RangeNotSupportedException(String request) {
+        super(request + " on BlindsendAPI doesn't support ranges");
+    }
+}
@@ -0,0 +1,49 @@
+package api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream reading through a BandwidthLimiter. Reads are limited to slices, and every slice read is paid for
+ * before the next one is started
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    private final BandwidthLimiter limiter;
+    private final BandwidthLimiter.Priority priority;
+
+    ThrottledInputStream(InputStream in, BandwidthLimiter limiter, BandwidthLimiter.Priority priority) {
+        super(in);
+        this.limiter = limiter;
+        this.priority = priority;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = this.in.read();
+        if (b != -1)
+            this.limiter.acquire(1, this.priority);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = this.in.read(b, off, Math.min(len, ThrottledOutputStream.SLICE));
+        if (n > 0)
+            this.limiter.acquire(n, this.priority);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+        byte[] buffer = new byte[(int) Math.min(n, ThrottledOutputStream.SLICE)];
+        long skipped = 0;
+        int read;
+        while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1)
+            skipped += read;
+        return skipped;
+    }
+}
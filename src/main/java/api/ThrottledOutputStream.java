@@ -0,0 +1,40 @@
+package api;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream writing through a BandwidthLimiter. Large writes are split into slices, so that transfers sharing the
+ * limiter are interleaved
+ */
+class ThrottledOutputStream extends FilterOutputStream {
+
+    static final int SLICE = 16 * 1024;
+
+    private final BandwidthLimiter limiter;
+    private final BandwidthLimiter.Priority priority;
+
+    ThrottledOutputStream(OutputStream out, BandwidthLimiter limiter, BandwidthLimiter.Priority priority) {
+        super(out);
+        this.limiter = limiter;
+        this.priority = priority;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.limiter.acquire(1, this.priority);
+        this.out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, SLICE);
+            this.limiter.acquire(n, this.priority);
+            this.out.write(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+}
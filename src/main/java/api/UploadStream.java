@@ -0,0 +1,74 @@
+package api;
+
+import org.apache.commons.io.IOUtils;
+import util.Cancellation;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Stream writing an encrypted file directly into the body of an upload request. Closing the stream completes the
+ * request, and fails if blindsend doesn't accept the file. A failed upload must be aborted instead of closed, so that
+ * a partial file is never submitted
+ */
+public class UploadStream extends FilterOutputStream {
+
+    private final HttpURLConnection connection;
+    private final Cancellation cancellation;
+    private boolean closed;
+
+    UploadStream(OutputStream out, HttpURLConnection connection, Cancellation cancellation) {
+        super(out);
+        this.connection = connection;
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+    }
+
+    /**
+     * Completes the upload request
+     * @throws BlindsendApiException if blindsend doesn't accept the file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        try {
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                this.connection.disconnect();
+                throw e;
+            }
+
+            int responseCode = this.connection.getResponseCode();
+            BlindsendAPI.LOGGER.info("/request/send-file Response Code :  " + responseCode);
+            if (responseCode != HttpURLConnection.HTTP_OK)
+                throw new BlindsendApiException("/request/send-file", responseCode);
+            try (InputStream in = this.connection.getInputStream()) {
+                // reading the response to the end lets the connection be reused
+                IOUtils.skip(in, Long.MAX_VALUE);
+            }
+        } finally {
+            this.cancellation.removeOnCancel(new BlindsendAPI.Disconnect(this.connection));
+        }
+    }
+
+    /**
+     * Aborts the upload request by closing its connection. Does nothing once the stream is closed
+     */
+    public void abort() {
+        if (this.closed)
+            return;
+        this.closed = true;
+        this.cancellation.removeOnCancel(new BlindsendAPI.Disconnect(this.connection));
+        this.connection.disconnect();
+    }
+}
@@ -0,0 +1,307 @@
+package blindsend;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.AtomicFiles;
+import util.BlindsendUtil;
+import util.Cancellation;
+import util.ConcurrencyUtil;
+import util.TransferCancelledException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The BulkReceiver class receives and decrypts many links concurrently into one folder. Submitted links are queued
+ * and received by a fixed number of workers, so the number of concurrent downloads is bounded. A link submitted
+ * again while it is still queued or being received is merged with the first submission. Decrypted files only appear
+ * in the folder once they are complete and verified, and never replace an existing file: a file whose name is taken
+ * is saved as "name (1).ext" and so on, and its LinkStatus reports the path actually used. A file name which points
+ * outside of the folder fails the link.
+ * Each submission returns a LinkStatus, and the receiver keeps aggregate counters of all the links it received
+ */
+public class BulkReceiver implements Closeable {
+
+    final static Logger LOGGER = LogManager.getLogger(BulkReceiver.class);
+
+    /**
+     * State of a submitted link
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private final FileReceiver receiver;
+    private final Path decryptedFileFolder;
+    private final ExecutorService workers;
+    private final ConcurrentMap<String, LinkStatus> inFlight = new ConcurrentHashMap<>();
+    private volatile long timeoutMillis;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final Object activity = new Object();
+    private int running;
+    private long activeNanos;
+    private long activeSince;
+
+    /**
+     * Creates new BulkReceiver
+     * @param receiver File receiver used for every link
+     * @param decryptedFileFolder Folder to save decrypted files into
+     * @param parallelism Maximum number of links received at the same time
+     */
+    public BulkReceiver(FileReceiver receiver, Path decryptedFileFolder, int parallelism) {
+        this.receiver = receiver;
+        this.decryptedFileFolder = decryptedFileFolder;
+        this.workers = Executors.newFixedThreadPool(parallelism, ConcurrencyUtil.threadFactory("blindsend-bulk-receiver", Thread.NORM_PRIORITY));
+    }
+
+    /**
+     * Queues a link for receiving. If the same link is already queued or being received, its status is returned
+     * and the link is not received twice
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @return Status of the link
+     */
+    public LinkStatus submit(URL linkUrl, final String pass) {
+        String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        final LinkStatus status = new LinkStatus(linkUrl);
+        FutureTask<Path> task = new FutureTask<>(new Callable<Path>() {
+            @Override
+            public Path call() throws Exception {
+                return receive(status, pass);
+            }
+        });
+        status.result = task;
+        LinkStatus existing = this.inFlight.putIfAbsent(linkId, status);
+        if (existing != null) {
+            LOGGER.debug("Link " + linkId + " is already being received, merging");
+            return existing;
+        }
+        try {
+            this.workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.inFlight.remove(linkId, status);
+            throw e;
+        }
+        return status;
+    }
+
+    /**
+     * Sets the time each link is allowed to take, from the moment a worker starts receiving it. Links which take
+     * longer fail with TransferTimeoutException
+     * @param timeoutMillis Timeout in milliseconds, or 0 for none (the default)
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return Number of links received and decrypted
+     */
+    public long getCompleted() {
+        return this.completed.get();
+    }
+
+    /**
+     * @return Number of links which couldn't be received
+     */
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    /**
+     * @return Number of links queued or being received
+     */
+    public int getPending() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * @return Total size of the decrypted files
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * @return Aggregate throughput in decrypted bytes per second, measured over the time during which at least one
+     * link was being received
+     */
+    public double getThroughput() {
+        long nanos;
+        synchronized (this.activity) {
+            nanos = this.activeNanos + (this.running > 0 ? System.nanoTime() - this.activeSince : 0);
+        }
+        return nanos == 0 ? 0 : this.bytesReceived.get() * 1e9 / nanos;
+    }
+
+    /**
+     * Stops receiving. Queued links are dropped, and links being received are cancelled, which closes their
+     * connections
+     */
+    @Override
+    public void close() {
+        for (Runnable queued : this.workers.shutdownNow())
+            ((Future<?>) queued).cancel(false);
+        for (LinkStatus status : this.inFlight.values())
+            status.cancel();
+        this.inFlight.clear();
+    }
+
+    private Path receive(LinkStatus status, String pass) throws IOException, GeneralSecurityException {
+        Cancellation cancellation = this.timeoutMillis > 0 ? Cancellation.withTimeout(this.timeoutMillis) : new Cancellation();
+        if (!status.start(cancellation)) {
+            cancellation.cancel();
+            TransferCancelledException e = new TransferCancelledException("Transfer cancelled");
+            status.error = e;
+            status.state = State.FAILED;
+            this.failed.incrementAndGet();
+            this.inFlight.remove(BlindsendUtil.extractLinkId(status.link.toString()), status);
+            throw e;
+        }
+        started();
+        try {
+            Path file = this.receiver.receiveAndDecrypt(status.link, pass, cancellation, false, new FileReceiver.Sink<Path>() {
+                @Override
+                public Path readFrom(String fileName, InputStream in) throws IOException {
+                    return AtomicFiles.copyNew(in, AtomicFiles.resolveInside(decryptedFileFolder, fileName));
+                }
+            });
+            status.size = Files.size(file);
+            status.file = file;
+            status.state = State.DONE;
+            this.bytesReceived.addAndGet(status.size);
+            this.completed.incrementAndGet();
+            LOGGER.info("Received " + status.link + " into " + file);
+            return file;
+        } catch (IOException | GeneralSecurityException | RuntimeException | Error e) {
+            status.error = e;
+            status.state = State.FAILED;
+            this.failed.incrementAndGet();
+            LOGGER.warn("Receiving " + status.link + " failed", e);
+            throw e;
+        } finally {
+            status.endNanos = System.nanoTime();
+            finished();
+            this.inFlight.remove(BlindsendUtil.extractLinkId(status.link.toString()), status);
+        }
+    }
+
+    private void started() {
+        synchronized (this.activity) {
+            if (this.running++ == 0)
+                this.activeSince = System.nanoTime();
+        }
+    }
+
+    private void finished() {
+        synchronized (this.activity) {
+            if (--this.running == 0)
+                this.activeNanos += System.nanoTime() - this.activeSince;
+        }
+    }
+
+    /**
+     * Status of a link submitted to a BulkReceiver
+     */
+    public static class LinkStatus {
+        private final URL link;
+        private Future<Path> result;
+        private volatile State state = State.QUEUED;
+        private volatile Path file;
+        private volatile long size;
+        private volatile Throwable error;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private Cancellation cancellation;
+        private boolean cancelled;
+
+        LinkStatus(URL link) {
+            this.link = link;
+        }
+
+        /**
+         * Cancels receiving the link. A queued link is never started, and a link being received fails with
+         * TransferCancelledException
+         */
+        public void cancel() {
+            Cancellation running;
+            synchronized (this) {
+                this.cancelled = true;
+                running = this.cancellation;
+            }
+            if (running != null)
+                running.cancel();
+        }
+
+        private synchronized boolean start(Cancellation cancellation) {
+            if (this.cancelled)
+                return false;
+            this.cancellation = cancellation;
+            this.state = State.RUNNING;
+            this.startNanos = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Waits until the link has been received
+         * @return Path of the decrypted file
+         * @throws IOException if receiving failed, or the receiver was closed before the link was received
+         * @throws GeneralSecurityException if decryption failed
+         */
+        public Path await() throws IOException, GeneralSecurityException {
+            try {
+                return ConcurrencyUtil.await(this.result);
+            } catch (CancellationException e) {
+                throw new IOException("Receiver closed before " + this.link + " was received");
+            }
+        }
+
+        public URL getLink() {
+            return link;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return Path of the decrypted file, or null until the link has been received
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return Size of the decrypted file, or 0 until the link has been received
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return Reason of the failure, or null unless the state is FAILED
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return Time spent receiving the link so far, in milliseconds
+         */
+        public long getElapsedMillis() {
+            if (startNanos == 0)
+                return 0;
+            return TimeUnit.NANOSECONDS.toMillis((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos);
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package blindsend;
 
 import api.BlindsendAPI;
+import api.RangeNotSupportedException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import util.Keys;
 import crypto.CryptoFactory;
+import crypto.DecryptingChannel;
+import crypto.StreamEncryptionHeader;
+import org.apache.commons.io.IOUtils;
+import util.ArchiveUtil;
+import util.AtomicFiles;
 import util.BlindsendUtil;
-import java.io.File;
-import java.io.IOException;
+import util.Cancellation;
+import util.ConcurrencyUtil;
+import java.io.*;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The FileReceiver class provides methods for requesting links and receiving encrypted files from blindsend. It also handles
@@ -21,13 +40,30 @@ public class FileReceiver {
 
     final static Logger LOGGER = LogManager.getLogger(FileReceiver.class);
 
+    private static final ExecutorService DEFAULT_EXECUTOR =
+            Executors.newCachedThreadPool(ConcurrencyUtil.threadFactory("blindsend-receiver", Thread.NORM_PRIORITY));
+
+    // 1 MiB of plaintext with the default chunk size
+    private static final int CACHED_CHUNKS = 16;
+
     private BlindsendAPI api;
+    private ExecutorService executor;
 
     /**
      * Creates new FileReceiver
      */
     public FileReceiver(BlindsendAPI api){
+        this(api, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Creates new FileReceiver
+     * @param api Blindsend API
+     * @param executor Executor running the requests that a file exchange issues concurrently
+     */
+    public FileReceiver(BlindsendAPI api, ExecutorService executor){
         this.api = api;
+        this.executor = executor;
     }
 
     /**
@@ -36,38 +72,391 @@ public class FileReceiver {
      * @return File exchange link
      */
     public URL getLink(String pass) throws IOException, GeneralSecurityException {
-        String linkId = this.api.getLinkId();
+        return getLink(this.api.getLinkId(), pass);
+    }
 
-        byte[] kdfSalt = CryptoFactory.generateRandom(16);
-        int kdfOps = 1;
-        int kdfMemLimit = 8192;
-        byte[] passSeed = CryptoFactory.generateKeyPairSeed(pass, kdfSalt, kdfOps, kdfMemLimit);
-        KeyPair keyPairReceiver = CryptoFactory.generateKeyPair(passSeed);
-        String pkReceiver = BlindsendUtil.toHex(keyPairReceiver.getPublic().getEncoded());
+    /**
+     * Obtains a link for file exchange via blindsend, using a link id obtained beforehand with BlindsendAPI.getLinkId
+     * @param linkId Link id, not used for any other link
+     * @param pass Password
+     * @return File exchange link
+     */
+    public URL getLink(final String linkId, String pass) throws IOException, GeneralSecurityException {
+        final byte[] kdfSalt = CryptoFactory.generateRandom(16);
+        final int kdfOps = 1;
+        final int kdfMemLimit = 8192;
 
-        String link = this.api.initializeSession(
-                linkId,
-                kdfSalt,
-                kdfOps,
-                kdfMemLimit
-        );
-        return new URL(link + "#" + pkReceiver);
+        // the session only needs the KDF parameters, so it is initialized while the key is derived
+        Future<String> link = this.executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return api.initializeSession(
+                        linkId,
+                        kdfSalt,
+                        kdfOps,
+                        kdfMemLimit
+                );
+            }
+        });
+        try {
+            byte[] passSeed = CryptoFactory.generateKeyPairSeed(pass, kdfSalt, kdfOps, kdfMemLimit);
+            KeyPair keyPairReceiver = CryptoFactory.generateKeyPair(passSeed);
+            String pkReceiver = BlindsendUtil.toHex(keyPairReceiver.getPublic().getEncoded());
+
+            return new URL(ConcurrencyUtil.await(link) + "#" + pkReceiver);
+        } finally {
+            ConcurrencyUtil.cancelAll(link);
+        }
+    }
+
+    /**
+     * Downloads encrypted file from blindsend, and decrypts it into decryptedFileFolder while it is being downloaded.
+     * Every chunk is authenticated before it is written, and the decrypted file only appears under its name once it
+     * has been completely verified. On corrupted data, the download is aborted at the first bad chunk.
+     * A file of the same name in decryptedFileFolder is replaced, and a name which points outside of it fails the
+     * transfer
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param decryptedFileFolder Folder to save decrypted file into
+     * @return Path of the decrypted file
+     */
+    public Path receiveAndDecryptFile(URL linkUrl, String pass, Path decryptedFileFolder) throws GeneralSecurityException, IOException {
+        return receiveAndDecryptFile(linkUrl, pass, decryptedFileFolder, Cancellation.NONE);
     }
 
     /**
-     * Downloads encrypted file from blindsend, and decrypts it to decryptedFilePath
+     * Downloads encrypted file from blindsend and decrypts it into decryptedFileFolder, like
+     * receiveAndDecryptFile(URL, String, Path), until the transfer is cancelled or its deadline passes. A stopped
+     * transfer fails with TransferCancelledException or TransferTimeoutException, after its connections have been
+     * closed and its partially decrypted file deleted
      * @param linkUrl File exchange link
      * @param pass Password
      * @param decryptedFileFolder Folder to save decrypted file into
+     * @param cancellation Cancellation handle of the transfer
+     * @return Path of the decrypted file
+     */
+    public Path receiveAndDecryptFile(URL linkUrl, String pass, final Path decryptedFileFolder, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        return receiveAndDecrypt(linkUrl, pass, cancellation, false, new Sink<Path>() {
+            @Override
+            public Path readFrom(String fileName, InputStream in) throws IOException {
+                Path decryptedFilePath = AtomicFiles.resolveInside(decryptedFileFolder, fileName);
+                LOGGER.info("Decrypting downloaded file to " + decryptedFilePath);
+                AtomicFiles.copy(in, decryptedFilePath);
+                return decryptedFilePath;
+            }
+        });
+    }
+
+    /**
+     * Downloads encrypted file from blindsend, and decrypts it into a stream while it is being downloaded, without
+     * touching the filesystem. Every chunk is authenticated before it is written, but the whole file is only verified
+     * at its end, so if receiving fails, the stream may already have received the first part of the file.
+     * Only files in the chunked format can be received into a stream. Files in the single-message format of older
+     * senders are only authenticated at their very end, so they fail with IOException before anything is written
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param sink Stream the decrypted file is written into. It is not closed
+     * @return Name of the file, as given by the sender
+     */
+    public String receiveAndDecrypt(URL linkUrl, String pass, OutputStream sink) throws GeneralSecurityException, IOException {
+        return receiveAndDecrypt(linkUrl, pass, sink, Cancellation.NONE);
+    }
+
+    /**
+     * Downloads encrypted file from blindsend and decrypts it into a stream, like
+     * receiveAndDecrypt(URL, String, OutputStream), until the transfer is cancelled or its deadline passes
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param sink Stream the decrypted file is written into. It is not closed
+     * @param cancellation Cancellation handle of the transfer
+     * @return Name of the file, as given by the sender
+     */
+    public String receiveAndDecrypt(URL linkUrl, String pass, final OutputStream sink, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        return receiveAndDecrypt(linkUrl, pass, cancellation, true, new Sink<String>() {
+            @Override
+            public String readFrom(String fileName, InputStream in) throws IOException {
+                IOUtils.copyLarge(in, sink);
+                sink.flush();
+                return fileName;
+            }
+        });
+    }
+
+    /**
+     * Downloads encrypted file from blindsend, and decrypts it into a channel while it is being downloaded, like
+     * receiveAndDecrypt(URL, String, OutputStream)
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param sink Channel the decrypted file is written into. It is not closed
+     * @return Name of the file, as given by the sender
+     */
+    public String receiveAndDecrypt(URL linkUrl, String pass, WritableByteChannel sink) throws GeneralSecurityException, IOException {
+        return receiveAndDecrypt(linkUrl, pass, sink, Cancellation.NONE);
+    }
+
+    /**
+     * Downloads encrypted file from blindsend and decrypts it into a channel, like
+     * receiveAndDecrypt(URL, String, WritableByteChannel), until the transfer is cancelled or its deadline passes
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param sink Channel the decrypted file is written into. It is not closed
+     * @param cancellation Cancellation handle of the transfer
+     * @return Name of the file, as given by the sender
+     */
+    public String receiveAndDecrypt(URL linkUrl, String pass, WritableByteChannel sink, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        return receiveAndDecrypt(linkUrl, pass, Channels.newOutputStream(sink), cancellation);
+    }
+
+    /**
+     * Downloads encrypted file from blindsend and hands the decrypting stream to a sink
+     * @param chunkedOnly Whether files in the single-message format are rejected, because the sink can't hold back
+     *                    their plaintext until it has been authenticated
+     * @return Result of the sink
+     */
+    <T> T receiveAndDecrypt(URL linkUrl, String pass, Cancellation cancellation, boolean chunkedOnly, Sink<T> sink) throws GeneralSecurityException, IOException {
+        final String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        final BlindsendAPI api = this.api.withCancellation(cancellation);
+
+        // the download and both metadata requests are independent, only the key derivation has to wait for the keys
+        Download download = new Download(api, linkId);
+        Future<Keys> keys = startGetKeys(api, linkId);
+        Future<String> fileName = this.executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return api.getFileName(linkId);
+            }
+        });
+        byte[] masterKey = null;
+        try {
+            Keys receivedKeys = ConcurrencyUtil.await(keys);
+            if (chunkedOnly && StreamEncryptionHeader.parse(receivedKeys.getStreamEncryptionHeader()) == null)
+                throw new IOException("File " + linkId + " is in the single-message format, which can only be received into a file");
+            masterKey = deriveMasterKey(receivedKeys, pass);
+            String receivedFileName = ConcurrencyUtil.await(fileName);
+
+            try (InputStream in = CryptoFactory.decryptStream(masterKey, download.await(), receivedKeys.getStreamEncryptionHeader())) {
+                return sink.readFrom(receivedFileName, cancellation.wrap(in));
+            }
+        } catch (IOException e) {
+            throw cancellation.failure(e);
+        } finally {
+            ConcurrencyUtil.cancelAll(keys, fileName);
+            download.close();
+            wipe(masterKey);
+        }
+    }
+
+    /**
+     * Downloads an encrypted archive sent with FileSender.encryptAndSendFolder or FileSender.encryptAndSendFiles,
+     * and unpacks all of its entries into decryptedFileFolder while decrypting it
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param decryptedFileFolder Folder to save decrypted files into
+     * @return Names of all the entries in the archive
+     */
+    public List<String> receiveAndDecryptArchive(URL linkUrl, String pass, Path decryptedFileFolder) throws GeneralSecurityException, IOException {
+        return receiveAndDecryptArchive(linkUrl, pass, decryptedFileFolder, null);
+    }
+
+    /**
+     * Downloads an encrypted archive sent with FileSender.encryptAndSendFolder or FileSender.encryptAndSendFiles,
+     * and unpacks only the selected entries into decryptedFileFolder while decrypting it
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param decryptedFileFolder Folder to save decrypted files into
+     * @param entryNames Names of the archive entries to extract, as listed by listArchiveEntries, or null for all entries
+     * @return Names of all the entries in the archive
+     */
+    public List<String> receiveAndDecryptArchive(URL linkUrl, String pass, Path decryptedFileFolder, Collection<String> entryNames) throws GeneralSecurityException, IOException {
+        return receiveAndDecryptArchive(linkUrl, pass, decryptedFileFolder, entryNames, Cancellation.NONE);
+    }
+
+    /**
+     * Downloads an encrypted archive and unpacks the selected entries into decryptedFileFolder, like
+     * receiveAndDecryptArchive(URL, String, Path, Collection), until the transfer is cancelled or its deadline passes.
+     * Entries completely extracted before the transfer was stopped are kept
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param decryptedFileFolder Folder to save decrypted files into
+     * @param entryNames Names of the archive entries to extract, as listed by listArchiveEntries, or null for all entries
+     * @param cancellation Cancellation handle of the transfer
+     * @return Names of all the entries in the archive
+     */
+    public List<String> receiveAndDecryptArchive(URL linkUrl, String pass, Path decryptedFileFolder, Collection<String> entryNames, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        BlindsendAPI api = this.api.withCancellation(cancellation);
+
+        Download download = new Download(api, linkId);
+        Future<Keys> keys = startGetKeys(api, linkId);
+        byte[] masterKey = null;
+        try {
+            Keys receivedKeys = ConcurrencyUtil.await(keys);
+            masterKey = deriveMasterKey(receivedKeys, pass);
+
+            LOGGER.info("Unpacking archive to " + decryptedFileFolder);
+            try (InputStream in = CryptoFactory.decryptStream(masterKey, download.await(), receivedKeys.getStreamEncryptionHeader())) {
+                return ArchiveUtil.extractArchive(cancellation.wrap(in), decryptedFileFolder, entryNames);
+            }
+        } catch (IOException e) {
+            throw cancellation.failure(e);
+        } finally {
+            ConcurrencyUtil.cancelAll(keys);
+            download.close();
+            wipe(masterKey);
+        }
+    }
+
+    /**
+     * Reads the index of an encrypted archive without extracting any of its entries. For archives in the chunked
+     * format, the download is aborted as soon as the index has been read and verified
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @return Names of all the entries in the archive
+     */
+    public List<String> listArchiveEntries(URL linkUrl, String pass) throws GeneralSecurityException, IOException {
+        return listArchiveEntries(linkUrl, pass, Cancellation.NONE);
+    }
+
+    /**
+     * Reads the index of an encrypted archive, like listArchiveEntries(URL, String), until the transfer is cancelled
+     * or its deadline passes
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param cancellation Cancellation handle of the transfer
+     * @return Names of all the entries in the archive
      */
-    public void receiveAndDecryptFile(URL linkUrl, String pass, Path decryptedFileFolder) throws GeneralSecurityException, IOException {
-        String tempFilePath = System.getProperty("java.io.tmpdir") + "tempDownloadedEncrypted";
+    public List<String> listArchiveEntries(URL linkUrl, String pass, Cancellation cancellation) throws GeneralSecurityException, IOException {
         String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        BlindsendAPI api = this.api.withCancellation(cancellation);
+
+        Download download = new Download(api, linkId);
+        Future<Keys> keys = startGetKeys(api, linkId);
+        byte[] masterKey = null;
+        try {
+            Keys receivedKeys = ConcurrencyUtil.await(keys);
+            masterKey = deriveMasterKey(receivedKeys, pass);
+
+            try (InputStream in = cancellation.wrap(CryptoFactory.decryptStream(masterKey, download.await(), receivedKeys.getStreamEncryptionHeader()))) {
+                List<String> names = ArchiveUtil.readIndex(in);
+                // single-message archives are only authenticated at their very end
+                if (StreamEncryptionHeader.parse(receivedKeys.getStreamEncryptionHeader()) == null)
+                    IOUtils.skip(in, Long.MAX_VALUE);
+                return names;
+            }
+        } catch (IOException e) {
+            throw cancellation.failure(e);
+        } finally {
+            ConcurrencyUtil.cancelAll(keys);
+            download.close();
+            wipe(masterKey);
+        }
+    }
+
+    /**
+     * Opens a received file for random access to its plaintext, without downloading it. Only the chunks covering the
+     * bytes read are downloaded, with ranged requests, and each of them is authenticated before it is returned.
+     * Recently read chunks are cached. Only files in the chunked format can be opened
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @return Read-only channel of the decrypted file
+     */
+    public SeekableByteChannel openFile(URL linkUrl, String pass) throws GeneralSecurityException, IOException {
+        return openFile(linkUrl, pass, Cancellation.NONE);
+    }
+
+    /**
+     * Opens a received file for random access to its plaintext, like openFile(URL, String). Opening the file, and
+     * every read from the returned channel, fails once the cancellation handle is cancelled or its deadline passes
+     * @param linkUrl File exchange link
+     * @param pass Password
+     * @param cancellation Cancellation handle, covering the whole time the channel is used
+     * @return Read-only channel of the decrypted file
+     */
+    public SeekableByteChannel openFile(URL linkUrl, String pass, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        final String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        final BlindsendAPI api = this.api.withCancellation(cancellation);
 
-        String fileName = this.api.getFileName(linkId);
-        String decryptedFilePath = decryptedFileFolder + "/" + fileName;
-        Keys keys = this.api.getKeys(linkId);
+        Future<Keys> keys = startGetKeys(api, linkId);
+        Future<Long> size = this.executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return api.getDownloadSize(linkId);
+            }
+        });
+        byte[] masterKey = null;
+        try {
+            Keys receivedKeys = ConcurrencyUtil.await(keys);
+            masterKey = deriveMasterKey(receivedKeys, pass);
+            return CryptoFactory.decryptChannel(masterKey, new RangedDownload(api, linkId, ConcurrencyUtil.await(size), cancellation), receivedKeys.getStreamEncryptionHeader(), CACHED_CHUNKS);
+        } catch (IOException e) {
+            throw cancellation.failure(e);
+        } finally {
+            ConcurrencyUtil.cancelAll(keys, size);
+            wipe(masterKey);
+        }
+    }
 
+    /**
+     * Opens an encrypted file downloaded beforehand with BlindsendAPI.downloadFile for random access to its plaintext.
+     * Only the chunks covering the bytes read are decrypted, and each of them is authenticated before it is returned.
+     * Recently read chunks are cached. Only files in the chunked format can be opened
+     * @param linkUrl File exchange link the file was downloaded from
+     * @param pass Password
+     * @param encryptedFile Encrypted file
+     * @return Read-only channel of the decrypted file
+     */
+    public SeekableByteChannel openFile(URL linkUrl, String pass, Path encryptedFile) throws GeneralSecurityException, IOException {
+        return openFile(linkUrl, pass, encryptedFile, Cancellation.NONE);
+    }
+
+    /**
+     * Opens an encrypted file downloaded beforehand for random access to its plaintext, like
+     * openFile(URL, String, Path). Opening the file, and every read from the returned channel, fails once the
+     * cancellation handle is cancelled or its deadline passes
+     * @param linkUrl File exchange link the file was downloaded from
+     * @param pass Password
+     * @param encryptedFile Encrypted file
+     * @param cancellation Cancellation handle, covering the whole time the channel is used
+     * @return Read-only channel of the decrypted file
+     */
+    public SeekableByteChannel openFile(URL linkUrl, String pass, Path encryptedFile, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+
+        Keys receivedKeys;
+        try {
+            receivedKeys = this.api.withCancellation(cancellation).getKeys(linkId);
+        } catch (IOException e) {
+            throw cancellation.failure(e);
+        }
+        FileChannel channel = FileChannel.open(encryptedFile, StandardOpenOption.READ);
+        byte[] masterKey = null;
+        try {
+            masterKey = deriveMasterKey(receivedKeys, pass);
+            return CryptoFactory.decryptChannel(masterKey, new CancellableSource(DecryptingChannel.fileSource(channel), cancellation), receivedKeys.getStreamEncryptionHeader(), CACHED_CHUNKS);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            channel.close();
+            throw e;
+        } finally {
+            wipe(masterKey);
+        }
+    }
+
+    private Future<Keys> startGetKeys(final BlindsendAPI api, final String linkId) {
+        return this.executor.submit(new Callable<Keys>() {
+            @Override
+            public Keys call() throws IOException {
+                return api.getKeys(linkId);
+            }
+        });
+    }
+
+    // the ciphers copy the master key when they are created, so it can be zeroed as soon as they exist
+    private static void wipe(byte[] key) {
+        if (key != null)
+            Arrays.fill(key, (byte) 0);
+    }
+
+    private byte[] deriveMasterKey(Keys keys, String pass) throws GeneralSecurityException {
         byte[] kdfSalt = keys.getKdfSalt();
         int kdfOps = keys.getKdfOps();
         int kdfMemLimit = keys.getKdfMemLimit();
@@ -80,11 +469,163 @@ public class FileReceiver {
         KeyPair keyPairReceiver = CryptoFactory.generateKeyPair(passSeed);
         PrivateKey skReceiver = keyPairReceiver.getPrivate();
 
-        byte[] masterKey = CryptoFactory.generateMasterKey(skReceiver, pkSender);
+        return CryptoFactory.generateMasterKey(skReceiver, pkSender);
+    }
 
-        File encryptedFile = this.api.downloadFile(linkId, tempFilePath);
+    /**
+     * Encrypted file read from blindsend with ranged requests
+     */
+    /**
+     * Download of an encrypted file started in the background. Closing it before the download stream has been opened
+     * makes the stream, and its connection, be closed as soon as it arrives
+     */
+    private class Download {
 
-        LOGGER.info("Decrypting saved file to " + decryptedFileFolder + "/" + fileName);
-        CryptoFactory.decryptAndSaveFile(masterKey, encryptedFile, decryptedFilePath);
+        private final Future<InputStream> stream;
+        private InputStream opened;
+        private boolean closed;
+
+        Download(final BlindsendAPI api, final String linkId) {
+            this.stream = executor.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() throws IOException {
+                    InputStream in = api.openDownload(linkId);
+                    synchronized (Download.this) {
+                        if (!closed) {
+                            opened = in;
+                            return in;
+                        }
+                    }
+                    in.close();
+                    throw new IOException("Download of file " + linkId + " was abandoned");
+                }
+            });
+        }
+
+        InputStream await() throws IOException, GeneralSecurityException {
+            return ConcurrencyUtil.await(this.stream);
+        }
+
+        void close() {
+            InputStream in;
+            synchronized (this) {
+                this.closed = true;
+                in = this.opened;
+            }
+            if (in == null) {
+                this.stream.cancel(true);
+                return;
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private static class RangedDownload implements DecryptingChannel.Source {
+        private final BlindsendAPI api;
+        private final String linkId;
+        private final long size;
+        private final Cancellation cancellation;
+        // once the server turns out not to support ranges, the file is read with one download, reopened only to go back
+        private boolean sequential;
+        private InputStream download;
+        private long downloadPosition;
+
+        RangedDownload(BlindsendAPI api, String linkId, long size, Cancellation cancellation) {
+            this.api = api;
+            this.linkId = linkId;
+            this.size = size;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public long size() {
+            return this.size;
+        }
+
+        @Override
+        public void readFully(long position, byte[] b, int off, int len) throws IOException {
+            this.cancellation.check();
+            try {
+                if (!this.sequential) {
+                    try (InputStream in = this.api.openDownload(this.linkId, position, len)) {
+                        IOUtils.readFully(in, b, off, len);
+                        return;
+                    } catch (RangeNotSupportedException e) {
+                        LOGGER.info("Server doesn't support ranges, reading file " + this.linkId + " sequentially");
+                        this.sequential = true;
+                    }
+                }
+                if (this.download == null || position < this.downloadPosition) {
+                    close();
+                    this.download = this.api.openDownload(this.linkId);
+                }
+                IOUtils.skipFully(this.download, position - this.downloadPosition);
+                this.downloadPosition = position;
+                IOUtils.readFully(this.download, b, off, len);
+                this.downloadPosition += len;
+            } catch (IOException e) {
+                close();
+                throw this.cancellation.failure(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (this.download == null)
+                return;
+            try {
+                this.download.close();
+            } catch (IOException e) {
+                // the download is abandoned either way
+            }
+            this.download = null;
+            this.downloadPosition = 0;
+        }
+    }
+
+    /**
+     * Encrypted file whose reads fail once the cancellation handle is cancelled
+     */
+    private static class CancellableSource implements DecryptingChannel.Source {
+        private final DecryptingChannel.Source source;
+        private final Cancellation cancellation;
+
+        CancellableSource(DecryptingChannel.Source source, Cancellation cancellation) {
+            this.source = source;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.source.size();
+        }
+
+        @Override
+        public void readFully(long position, byte[] b, int off, int len) throws IOException {
+            this.cancellation.check();
+            this.source.readFully(position, b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.source.close();
+        }
+    }
+
+    /**
+     * Destination of a decrypted file, reading it from the decrypting stream
+     * @param <T> Result of receiving the file
+     */
+    interface Sink<T> {
+        /**
+         * @param fileName Name of the file, as given by the sender
+         * @param in Decrypting stream, to be read to the end
+         * @return Result of receiving the file
+         */
+        T readFrom(String fileName, InputStream in) throws IOException;
     }
 }
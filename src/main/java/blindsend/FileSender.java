@@ -1,17 +1,34 @@
 package blindsend;
 
 import api.BlindsendAPI;
+import api.UploadStream;
+import crypto.CipherSuite;
 import crypto.CryptoFactory;
+import crypto.EncryptingOutputStream;
+import crypto.KeyPairPool;
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.ArchiveUtil;
 import util.BlindsendUtil;
+import util.Cancellation;
+import util.ConcurrencyUtil;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The FileSender class provides methods for encrypting and uploading encrypted files to blindsend
@@ -20,51 +37,276 @@ public class FileSender {
 
     final static Logger LOGGER = LogManager.getLogger(FileSender.class);
 
+    private static final ExecutorService DEFAULT_EXECUTOR =
+            Executors.newCachedThreadPool(ConcurrencyUtil.threadFactory("blindsend-sender", Thread.NORM_PRIORITY));
+
     private BlindsendAPI api;
+    private ExecutorService executor;
+    private KeyPairPool keyPairPool;
+    private CipherSuite cipherSuite = CipherSuite.AES_GCM;
+    private Path scratchFolder;
 
     /**
      * Creates new FileSender
      */
     public FileSender(BlindsendAPI api){
+        this(api, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Creates new FileSender
+     * @param api Blindsend API
+     * @param executor Executor running the requests that a file exchange issues concurrently
+     */
+    public FileSender(BlindsendAPI api, ExecutorService executor){
         this.api = api;
+        this.executor = executor;
+    }
+
+    /**
+     * Makes the sender take its ephemeral key pairs from a pool of pre-generated key pairs, instead of generating
+     * a key pair for every exchanged file
+     * @param keyPairPool Key pair pool, or null to generate key pairs inline
+     */
+    public void setKeyPairPool(KeyPairPool keyPairPool) {
+        this.keyPairPool = keyPairPool;
     }
 
     /**
-     * Encrypts a file from inputFilePath and sends it to blindsend.
-     * Also saves the encrypted file to encryptedFilePath
+     * Sets the cipher suite files are encrypted with. Receivers detect the suite from the stream encryption header
+     * @param cipherSuite Cipher suite, AES_GCM by default
+     */
+    public void setCipherSuite(CipherSuite cipherSuite) {
+        this.cipherSuite = cipherSuite;
+    }
+
+    /**
+     * Sets the folder in which encrypted files are staged before they are uploaded
+     * @param scratchFolder Existing folder, or null to use the default temporary-file folder
+     */
+    public void setScratchFolder(Path scratchFolder) {
+        this.scratchFolder = scratchFolder;
+    }
+
+    /**
+     * Encrypts a file from inputFilePath and sends it to blindsend
      * @param linkUrl File exchange link
      * @param inputFilePath Path to a file to be exchanged
      */
     public void encryptAndSendFile(URL linkUrl, Path inputFilePath) throws GeneralSecurityException, IOException  {
-        String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        encryptAndSendFile(linkUrl, inputFilePath, Cancellation.NONE);
+    }
 
-        byte[] pkReceiverBytes = BlindsendUtil.toByte(BlindsendUtil.extractKey(linkUrl.toString()));
-        KeyFactory kf = KeyFactory.getInstance("XDH", "BC");
-        PublicKey pkReceiver = kf.generatePublic(new X509EncodedKeySpec(pkReceiverBytes));
+    /**
+     * Encrypts a file from inputFilePath and sends it to blindsend, until the transfer is cancelled or its deadline
+     * passes. A stopped transfer fails with TransferCancelledException or TransferTimeoutException, after its
+     * connections have been closed and its staged encrypted file deleted
+     * @param linkUrl File exchange link
+     * @param inputFilePath Path to a file to be exchanged
+     * @param cancellation Cancellation handle of the transfer
+     */
+    public void encryptAndSendFile(URL linkUrl, final Path inputFilePath, Cancellation cancellation) throws GeneralSecurityException, IOException  {
+        LOGGER.info("Loaded file for encryption " + inputFilePath);
+        encryptAndSend(linkUrl, inputFilePath.getFileName().toString(), true, -1, cancellation, new Payload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Files.copy(inputFilePath, out);
+            }
+        });
+    }
 
-        String uploadId = this.api.prepareUpload(linkId);
+    /**
+     * Encrypts data read from a stream and sends it to blindsend while it is being encrypted, without staging it on
+     * disk. The stream is read to the end, but not closed
+     * @param linkUrl File exchange link
+     * @param source Stream of the data to be exchanged
+     * @param length Number of bytes the stream provides, or -1 if unknown. When the length is unknown, the file is
+     *               uploaded with chunked transfer encoding
+     * @param fileName Name of the exchanged file
+     */
+    public void encryptAndSendStream(URL linkUrl, InputStream source, long length, String fileName) throws GeneralSecurityException, IOException {
+        encryptAndSendStream(linkUrl, source, length, fileName, Cancellation.NONE);
+    }
 
-        KeyPair keyPairSender = CryptoFactory.generateKeyPair();
-        byte[] masterKey = CryptoFactory.generateMasterKey(keyPairSender.getPrivate(), pkReceiver);
+    /**
+     * Encrypts data read from a stream and sends it to blindsend while it is being encrypted, like
+     * encryptAndSendStream(URL, InputStream, long, String), until the transfer is cancelled or its deadline passes
+     * @param linkUrl File exchange link
+     * @param source Stream of the data to be exchanged
+     * @param length Number of bytes the stream provides, or -1 if unknown
+     * @param fileName Name of the exchanged file
+     * @param cancellation Cancellation handle of the transfer
+     */
+    public void encryptAndSendStream(URL linkUrl, final InputStream source, long length, String fileName, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        LOGGER.info("Streaming " + fileName + " for encryption");
+        encryptAndSend(linkUrl, fileName, false, length, cancellation, new Payload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                IOUtils.copyLarge(source, out);
+            }
+        });
+    }
 
-        String encryptedFilePath = System.getProperty("java.io.tmpdir") + "tempUploadedEncrypted";
-        File inputFile = new File(inputFilePath.toString());
-        String fileName = inputFile.getName();
-        LOGGER.info("Loaded file for encryption " + inputFilePath);
+    /**
+     * Encrypts data read from a channel and sends it to blindsend while it is being encrypted, without staging it on
+     * disk. The channel is read to the end, but not closed
+     * @param linkUrl File exchange link
+     * @param source Channel of the data to be exchanged
+     * @param length Number of bytes the channel provides, or -1 if unknown
+     * @param fileName Name of the exchanged file
+     */
+    public void encryptAndSendStream(URL linkUrl, ReadableByteChannel source, long length, String fileName) throws GeneralSecurityException, IOException {
+        encryptAndSendStream(linkUrl, source, length, fileName, Cancellation.NONE);
+    }
+
+    /**
+     * Encrypts data read from a channel and sends it to blindsend while it is being encrypted, like
+     * encryptAndSendStream(URL, ReadableByteChannel, long, String), until the transfer is cancelled or its deadline
+     * passes
+     * @param linkUrl File exchange link
+     * @param source Channel of the data to be exchanged
+     * @param length Number of bytes the channel provides, or -1 if unknown
+     * @param fileName Name of the exchanged file
+     * @param cancellation Cancellation handle of the transfer
+     */
+    public void encryptAndSendStream(URL linkUrl, ReadableByteChannel source, long length, String fileName, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        encryptAndSendStream(linkUrl, Channels.newInputStream(source), length, fileName, cancellation);
+    }
+
+    /**
+     * Packs all files of a folder (including sub-folders) into a single archive, encrypts it on the fly and sends it
+     * to blindsend, so that the whole folder is exchanged under one link. The archive is named after the folder.
+     * The name ArchiveUtil.INDEX_ENTRY_NAME is reserved for the archive index, so the folder must not contain a file
+     * of that name at its root
+     * @param linkUrl File exchange link
+     * @param folderPath Path to a folder to be exchanged
+     */
+    public void encryptAndSendFolder(URL linkUrl, Path folderPath) throws GeneralSecurityException, IOException {
+        encryptAndSendFolder(linkUrl, folderPath, Cancellation.NONE);
+    }
+
+    /**
+     * Packs all files of a folder into a single archive, encrypts it on the fly and sends it to blindsend, like
+     * encryptAndSendFolder(URL, Path), until the transfer is cancelled or its deadline passes
+     * @param linkUrl File exchange link
+     * @param folderPath Path to a folder to be exchanged
+     * @param cancellation Cancellation handle of the transfer
+     */
+    public void encryptAndSendFolder(URL linkUrl, Path folderPath, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        encryptAndSendArchive(linkUrl, ArchiveUtil.folderEntries(folderPath), folderPath.getFileName() + ".zip", cancellation);
+    }
+
+    /**
+     * Packs a list of files into a single archive, encrypts it on the fly and sends it to blindsend, so that all
+     * the files are exchanged under one link. Archive entries are named after the files, so the names must be unique, and
+     * differ from ArchiveUtil.INDEX_ENTRY_NAME
+     * @param linkUrl File exchange link
+     * @param inputFilePaths Paths to files to be exchanged
+     * @param archiveName Name of the exchanged archive
+     */
+    public void encryptAndSendFiles(URL linkUrl, List<Path> inputFilePaths, String archiveName) throws GeneralSecurityException, IOException {
+        encryptAndSendFiles(linkUrl, inputFilePaths, archiveName, Cancellation.NONE);
+    }
+
+    /**
+     * Packs a list of files into a single archive, encrypts it on the fly and sends it to blindsend, like
+     * encryptAndSendFiles(URL, List, String), until the transfer is cancelled or its deadline passes
+     * @param linkUrl File exchange link
+     * @param inputFilePaths Paths to files to be exchanged
+     * @param archiveName Name of the exchanged archive
+     * @param cancellation Cancellation handle of the transfer
+     */
+    public void encryptAndSendFiles(URL linkUrl, List<Path> inputFilePaths, String archiveName, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        encryptAndSendArchive(linkUrl, ArchiveUtil.fileEntries(inputFilePaths), archiveName, cancellation);
+    }
 
-        CryptoFactory.encryptAndSaveFile(masterKey, inputFile, encryptedFilePath);
+    private void encryptAndSendArchive(URL linkUrl, final Map<String, Path> entries, String archiveName, Cancellation cancellation) throws GeneralSecurityException, IOException {
+        LOGGER.info("Packing " + entries.size() + " files into archive " + archiveName);
+        encryptAndSend(linkUrl, archiveName, true, -1, cancellation, new Payload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                ArchiveUtil.writeArchive(entries, out);
+            }
+        });
+    }
 
-        this.api.uploadFile(linkId, uploadId, encryptedFilePath);
+    /**
+     * Encrypts and uploads a payload. A staged payload is encrypted into a temporary file, which is then uploaded.
+     * Otherwise, the payload is encrypted straight into the upload request
+     * @param length Plaintext length of a payload which isn't staged, or -1 if unknown
+     */
+    private void encryptAndSend(URL linkUrl, String fileName, boolean staged, long length, Cancellation cancellation, Payload payload) throws GeneralSecurityException, IOException {
+        final String linkId = BlindsendUtil.extractLinkId(linkUrl.toString());
+        final BlindsendAPI api = this.api.withCancellation(cancellation);
 
-        File encryptedFile = new File(encryptedFilePath);
-        long fileSize = encryptedFile.length();
+        // the prepare-upload round-trip runs while the keys are generated and the file is encrypted
+        Future<String> uploadId = this.executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return api.prepareUpload(linkId);
+            }
+        });
+        File encryptedFile = staged ? File.createTempFile("blindsendUploadEncrypted", ".tmp", this.scratchFolder == null ? null : this.scratchFolder.toFile()) : null;
+        KeyPair keyPairSender = null;
+        byte[] masterKey = null;
+        UploadStream upload = null;
+        try {
+            PublicKey pkReceiver = extractReceiverKey(linkUrl);
+            keyPairSender = this.keyPairPool != null ? this.keyPairPool.take() : CryptoFactory.generateEphemeralKeyPair();
+            masterKey = CryptoFactory.generateMasterKey(keyPairSender.getPrivate(), pkReceiver);
+            byte[] pkSender = keyPairSender.getPublic().getEncoded();
+            KeyPairPool.destroy(keyPairSender);
 
-        this.api.finishUpload(
-                linkId,
-                keyPairSender.getPublic().getEncoded(),
-                "",
-                fileName,
-                fileSize
-        );
+            EncryptingOutputStream out;
+            if (staged) {
+                out = CryptoFactory.encryptStream(masterKey, new BufferedOutputStream(new FileOutputStream(encryptedFile)), this.cipherSuite);
+                try {
+                    payload.writeTo(cancellation.wrap(out));
+                } finally {
+                    out.close();
+                }
+            } else {
+                upload = api.openUpload(linkId, ConcurrencyUtil.await(uploadId), length < 0 ? -1 : CryptoFactory.encryptedLength(length));
+                out = CryptoFactory.encryptStream(masterKey, upload, this.cipherSuite);
+                // on failure, the upload is aborted below instead of being completed with a partial file
+                payload.writeTo(cancellation.wrap(out));
+                out.close();
+            }
+            Arrays.fill(masterKey, (byte) 0);
+
+            if (staged)
+                api.uploadFile(linkId, ConcurrencyUtil.await(uploadId), encryptedFile.getPath());
+            api.finishUpload(
+                    linkId,
+                    pkSender,
+                    out.getHeader().toString(),
+                    fileName,
+                    out.getLength()
+            );
+        } catch (IOException e) {
+            throw cancellation.failure(e);
+        } finally {
+            ConcurrencyUtil.cancelAll(uploadId);
+            if (upload != null)
+                upload.abort();
+            KeyPairPool.destroy(keyPairSender);
+            if (masterKey != null)
+                Arrays.fill(masterKey, (byte) 0);
+            if (encryptedFile != null)
+                encryptedFile.delete();
+        }
+    }
+
+    private PublicKey extractReceiverKey(URL linkUrl) throws GeneralSecurityException {
+        byte[] pkReceiverBytes = BlindsendUtil.toByte(BlindsendUtil.extractKey(linkUrl.toString()));
+        KeyFactory kf = KeyFactory.getInstance("XDH", "BC");
+        return kf.generatePublic(new X509EncodedKeySpec(pkReceiverBytes));
+    }
+
+    /**
+     * Plaintext content of an exchanged file, written into the encrypting stream
+     */
+    private interface Payload {
+        void writeTo(OutputStream out) throws IOException;
     }
 }
@@ -0,0 +1,153 @@
+package blindsend;
+
+import api.BlindsendAPI;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.ConcurrencyUtil;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The LinkFactory class creates file exchange links on demand, like FileReceiver.getLink, but keeps a small stock of
+ * link ids fetched ahead of time by a background thread. Creating a link then doesn't wait for /request/init-link-id.
+ * Link ids older than the configured maximum age are discarded and replaced, so only fresh ids are ever used
+ */
+public class LinkFactory implements Closeable {
+
+    final static Logger LOGGER = LogManager.getLogger(LinkFactory.class);
+
+    private final BlindsendAPI api;
+    private final FileReceiver receiver;
+    private final BlockingQueue<PrefetchedLinkId> stock;
+    private final long maxAgeNanos;
+    private final Object refill = new Object();
+    private final Thread prefetcher;
+    private volatile boolean closed;
+
+    /**
+     * Creates new LinkFactory and starts fetching link ids in the background
+     * @param api Blindsend API used to fetch link ids
+     * @param receiver File receiver used to initialize sessions for the links
+     * @param stockSize Number of link ids kept ready
+     * @param maxAgeMillis Maximum age of a link id before it is considered expired
+     */
+    public LinkFactory(BlindsendAPI api, FileReceiver receiver, int stockSize, long maxAgeMillis) {
+        this.api = api;
+        this.receiver = receiver;
+        this.stock = new LinkedBlockingQueue<>(stockSize);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.prefetcher = ConcurrencyUtil.threadFactory("blindsend-link-prefetch", Thread.NORM_PRIORITY).newThread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+            }
+        });
+        this.prefetcher.start();
+    }
+
+    /**
+     * Obtains a link for file exchange via blindsend, using a prefetched link id when one is available
+     * @param pass Password
+     * @return File exchange link
+     */
+    public URL getLink(String pass) throws IOException, GeneralSecurityException {
+        return this.receiver.getLink(takeLinkId(), pass);
+    }
+
+    /**
+     * @return Number of link ids currently in stock, including ones that might have expired
+     */
+    public int available() {
+        return this.stock.size();
+    }
+
+    /**
+     * Stops the background thread. Link ids left in stock are dropped
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.prefetcher.interrupt();
+        this.stock.clear();
+    }
+
+    private String takeLinkId() throws IOException {
+        PrefetchedLinkId prefetched;
+        try {
+            while ((prefetched = this.stock.poll()) != null) {
+                if (!prefetched.isExpired())
+                    return prefetched.linkId;
+                LOGGER.debug("Discarding expired link id");
+            }
+        } finally {
+            synchronized (this.refill) {
+                this.refill.notifyAll();
+            }
+        }
+        LOGGER.debug("No link id in stock, fetching one inline");
+        return this.api.getLinkId();
+    }
+
+    private void prefetch() {
+        long retryMillis = 1000;
+        while (!this.closed) {
+            try {
+                discardExpired();
+                if (this.stock.remainingCapacity() > 0) {
+                    this.stock.offer(new PrefetchedLinkId(this.api.getLinkId()));
+                    retryMillis = 1000;
+                    continue;
+                }
+                synchronized (this.refill) {
+                    // takeLinkId notifies while holding the lock, so a link id taken since the check above is seen
+                    // here, instead of its notification being lost before the wait starts
+                    long remainingNanos = oldestRemainingNanos();
+                    if (this.stock.remainingCapacity() > 0 || remainingNanos <= 0)
+                        continue;
+                    // wakes up when a link id is taken, or when the oldest link id is about to expire
+                    this.refill.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Prefetching link id failed, retrying in " + retryMillis + " ms", e);
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                retryMillis = Math.min(retryMillis * 2, 60000);
+            }
+        }
+    }
+
+    private void discardExpired() {
+        PrefetchedLinkId oldest;
+        while ((oldest = this.stock.peek()) != null && oldest.isExpired())
+            this.stock.remove(oldest);
+    }
+
+    private long oldestRemainingNanos() {
+        PrefetchedLinkId oldest = this.stock.peek();
+        return oldest == null ? this.maxAgeNanos : this.maxAgeNanos - (System.nanoTime() - oldest.fetchedAt);
+    }
+
+    private class PrefetchedLinkId {
+        final String linkId;
+        final long fetchedAt;
+
+        PrefetchedLinkId(String linkId) {
+            this.linkId = linkId;
+            this.fetchedAt = System.nanoTime();
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - this.fetchedAt > maxAgeNanos;
+        }
+    }
+}
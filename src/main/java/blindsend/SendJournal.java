@@ -0,0 +1,81 @@
+package blindsend;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of the files sent by WatchFolderSender, so that a restarted sender neither sends a file twice
+ * nor skips one. A file is identified by its absolute path, size and modification time, so a file which is
+ * rewritten after being sent is sent again. Each line records one sent file:
+ * size, modification time, link and path, separated by tabs
+ */
+class SendJournal implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, String> sent = new HashMap<>();
+    private final FileChannel channel;
+
+    SendJournal(Path journalFile) throws IOException {
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            byte[] content = Files.readAllBytes(journalFile);
+            int end = content.length;
+            while (end > 0 && content[end - 1] != '\n')
+                end--;
+            // decoding replaces malformed bytes, so a damaged line only makes its own file be sent again
+            for (String line : new String(content, 0, end, UTF_8).split("\n"))
+                read(line);
+            // a line cut off by a crash is dropped, so its file is sent again and the next record starts on a line of its own
+            if (end < content.length) {
+                this.channel.truncate(end);
+                this.channel.force(false);
+            }
+            this.channel.position(end);
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    synchronized boolean isSent(Path file, long size, long modified) {
+        return version(size, modified).equals(this.sent.get(file.toAbsolutePath().toString()));
+    }
+
+    synchronized void recordSent(Path file, long size, long modified, String link) throws IOException {
+        String path = file.toAbsolutePath().toString();
+        String line = size + "\t" + modified + "\t" + link + "\t" + path + "\n";
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(UTF_8));
+        while (buffer.hasRemaining())
+            this.channel.write(buffer);
+        this.channel.force(false);
+        this.sent.put(path, version(size, modified));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void read(String line) {
+        String[] fields = line.split("\t", 4);
+        if (fields.length < 4)
+            return;
+        try {
+            this.sent.put(fields[3], version(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+        } catch (NumberFormatException e) {
+            // damaged line
+        }
+    }
+
+    private static String version(long size, long modified) {
+        return size + ":" + modified;
+    }
+}
@@ -0,0 +1,133 @@
+package blindsend;
+
+import api.BlindsendAPI;
+import crypto.CipherSuite;
+import crypto.CryptoFactory;
+import crypto.EncryptingOutputStream;
+import crypto.KeyPairPool;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import util.ConcurrencyUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The WarmUp class moves the one-time costs of a file exchange off the first transfer of a JVM: registering
+ * Bouncy Castle, the first provider lookups, seeding the DRBG, loading Argon2 and X25519, compiling the bulk cipher
+ * loops, and loading the HTTP and TLS classes. Running it in the background right after startup lets the first
+ * transfer run at the speed of later ones. It is also a short, complete training run for class-data sharing archives.
+ * Each phase is timed, and the timings are returned and logged
+ */
+public class WarmUp {
+
+    final static Logger LOGGER = LogManager.getLogger(WarmUp.class);
+
+    // enough 64 KiB chunks for the JIT to compile the cipher loops of every suite
+    private static final int BULK_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Starts warming up on a low-priority daemon thread
+     * @param api Blindsend API whose endpoint is connected to, or null to skip the HTTP phase
+     * @return Duration of each phase in milliseconds, by phase name
+     */
+    public static Future<Map<String, Long>> start(final BlindsendAPI api) {
+        ExecutorService executor = Executors.newSingleThreadExecutor(ConcurrencyUtil.threadFactory("blindsend-warm-up", Thread.MIN_PRIORITY));
+        try {
+            return executor.submit(new Callable<Map<String, Long>>() {
+                @Override
+                public Map<String, Long> call() {
+                    return run(api);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Warms up on the calling thread. Failures of a phase are logged and don't stop the other phases
+     * @param api Blindsend API whose endpoint is connected to, or null to skip the HTTP phase
+     * @return Duration of each phase in milliseconds, by phase name
+     */
+    public static Map<String, Long> run(BlindsendAPI api) {
+        Map<String, Long> timings = new LinkedHashMap<>();
+        long start = System.nanoTime();
+
+        long phase = System.nanoTime();
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+            Security.addProvider(new BouncyCastleProvider());
+        phase = lap(timings, "provider", phase);
+
+        try {
+            byte[] salt = CryptoFactory.generateRandom(16);
+            phase = lap(timings, "random", phase);
+
+            // senders use ephemeral key pairs, receivers agree on the master key with the key pair derived from the password
+            KeyPair sender = CryptoFactory.generateEphemeralKeyPair();
+            KeyPair receiver = CryptoFactory.generateKeyPair(CryptoFactory.generateKeyPairSeed("warm-up", salt, 1, 8192));
+            KeyFactory kf = KeyFactory.getInstance("XDH", "BC");
+            byte[] masterKey = CryptoFactory.generateMasterKey(sender.getPrivate(),
+                    kf.generatePublic(new X509EncodedKeySpec(receiver.getPublic().getEncoded())));
+            CryptoFactory.generateMasterKey(receiver.getPrivate(), sender.getPublic());
+            KeyPairPool.destroy(sender);
+            phase = lap(timings, "keys", phase);
+
+            byte[] plaintext = new byte[BULK_BYTES];
+            for (CipherSuite suite : CipherSuite.values()) {
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream(plaintext.length + plaintext.length / 1024 + 64);
+                EncryptingOutputStream out = CryptoFactory.encryptStream(masterKey, encrypted, suite);
+                out.write(plaintext);
+                out.close();
+                IOUtils.skip(CryptoFactory.decryptStream(masterKey, new ByteArrayInputStream(encrypted.toByteArray()), out.getHeader().toString()), Long.MAX_VALUE);
+            }
+            phase = lap(timings, "bulk", phase);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            LOGGER.warn("Crypto warm-up failed", e);
+            phase = System.nanoTime();
+        }
+
+        if (api != null) {
+            HttpURLConnection conn = null;
+            try {
+                // resolves the host and completes the TLS handshake, without sending any request
+                conn = (HttpURLConnection) new URL(api.getEndpoint()).openConnection();
+                conn.setConnectTimeout(10000);
+                conn.connect();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("HTTP warm-up failed", e);
+            } finally {
+                if (conn != null)
+                    conn.disconnect();
+            }
+            lap(timings, "http", phase);
+        }
+
+        timings.put("total", (System.nanoTime() - start) / 1000000);
+        LOGGER.info("Warm-up done: " + timings);
+        return Collections.unmodifiableMap(timings);
+    }
+
+    private static long lap(Map<String, Long> timings, String name, long since) {
+        long now = System.nanoTime();
+        timings.put(name, (now - since) / 1000000);
+        return now;
+    }
+}
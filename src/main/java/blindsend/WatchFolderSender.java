@@ -0,0 +1,253 @@
+package blindsend;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.Cancellation;
+import util.ConcurrencyUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.*;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The WatchFolderSender class is a long-running sender which watches folders and sends every file that appears or
+ * changes in them. A file is only sent once its size and modification time have stayed the same for the debounce
+ * period, so files which are still being written are not picked up. Files are sent concurrently, by a bounded pool of
+ * workers each owning one FileSender, and each send stages its encrypted file in a scratch folder of its own.
+ * Sent files are recorded in a journal, so that after a restart files already sent are skipped and files which were
+ * not completely sent are sent again. Failed sends are retried with an exponential backoff. Files whose name starts
+ * with a dot are ignored
+ */
+public class WatchFolderSender implements Closeable {
+
+    final static Logger LOGGER = LogManager.getLogger(WatchFolderSender.class);
+
+    /**
+     * Provides the file exchange link a watched file is sent to
+     */
+    public interface LinkSource {
+        /**
+         * @param file File about to be sent
+         * @return File exchange link
+         */
+        URL linkFor(Path file) throws IOException, GeneralSecurityException;
+    }
+
+    private static final long MAX_RETRY_MILLIS = 10 * 60 * 1000;
+
+    private final BlockingQueue<FileSender> idleSenders;
+    private final LinkSource linkSource;
+    private final SendJournal journal;
+    private final long debounceMillis;
+    private final ExecutorService workers;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> folders = new ConcurrentHashMap<>();
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private final Set<Path> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private final Queue<Candidate> failed = new ConcurrentLinkedQueue<>();
+    private final Set<Cancellation> sending = Collections.newSetFromMap(new ConcurrentHashMap<Cancellation, Boolean>());
+    private volatile boolean closed;
+
+    /**
+     * Creates new WatchFolderSender. Folders are added with watch, and files are sent once run is called
+     * @param senders File senders, one per worker, so their number bounds the number of concurrent sends.
+     *                Their scratch folder is replaced before every send
+     * @param linkSource Source of the links files are sent to
+     * @param journalFile File recording sent files, created if it doesn't exist
+     * @param debounceMillis Time during which a file must not change before it is sent
+     */
+    public WatchFolderSender(List<FileSender> senders, LinkSource linkSource, Path journalFile, long debounceMillis) throws IOException {
+        if (senders.isEmpty())
+            throw new IllegalArgumentException("At least one sender is required");
+        this.idleSenders = new LinkedBlockingQueue<>(senders);
+        this.linkSource = linkSource;
+        this.journal = new SendJournal(journalFile);
+        this.debounceMillis = debounceMillis;
+        this.workers = Executors.newFixedThreadPool(senders.size(), ConcurrencyUtil.threadFactory("blindsend-watch", Thread.NORM_PRIORITY));
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Starts watching a folder. Files already in the folder are sent too, unless the journal shows they were sent.
+     * Sub-folders are not watched
+     * @param folder Folder to watch
+     */
+    public void watch(Path folder) throws IOException {
+        WatchKey key = folder.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.folders.put(key, folder);
+        synchronized (this.candidates) {
+            scan(folder);
+        }
+        LOGGER.info("Watching folder " + folder);
+    }
+
+    /**
+     * Watches the folders and sends their files until the sender is closed or the calling thread is interrupted
+     */
+    public void run() {
+        long pollMillis = Math.max(50, Math.min(1000, this.debounceMillis / 2));
+        try {
+            while (!this.closed) {
+                WatchKey key = this.watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                synchronized (this.candidates) {
+                    if (key != null)
+                        handleEvents(key);
+                    Candidate retry;
+                    while ((retry = this.failed.poll()) != null)
+                        this.candidates.put(retry.file, retry);
+                    submitStable();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed while polling
+        }
+    }
+
+    /**
+     * Stops watching and cancels the sends in progress, which closes their connections. Cancelled sends are not
+     * journaled, so they are sent again on the next run
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.watchService.close();
+        this.workers.shutdownNow();
+        for (Cancellation cancellation : this.sending)
+            cancellation.cancel();
+        try {
+            this.workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.journal.close();
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path folder = this.folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null)
+                continue;
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.debug("Events lost for folder " + folder + ", rescanning it");
+                scan(folder);
+            } else {
+                consider(folder.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset() && folder != null) {
+            LOGGER.warn("Folder " + folder + " is no longer accessible, no longer watching it");
+            this.folders.remove(key);
+        }
+    }
+
+    private void scan(Path folder) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path file : files)
+                consider(file);
+        } catch (IOException | DirectoryIteratorException e) {
+            LOGGER.warn("Scanning folder " + folder + " failed", e);
+        }
+    }
+
+    private void consider(Path file) {
+        if (!file.getFileName().toString().startsWith(".") && !this.candidates.containsKey(file))
+            this.candidates.put(file, new Candidate(file, 0, 0));
+    }
+
+    private void submitStable() {
+        long now = System.currentTimeMillis();
+        Iterator<Candidate> it = this.candidates.values().iterator();
+        while (it.hasNext()) {
+            final Candidate candidate = it.next();
+            if (this.inFlight.contains(candidate.file) || now < candidate.notBefore)
+                continue;
+            long size, modified;
+            try {
+                if (!Files.isRegularFile(candidate.file)) {
+                    it.remove();
+                    continue;
+                }
+                size = Files.size(candidate.file);
+                modified = Files.getLastModifiedTime(candidate.file).toMillis();
+            } catch (IOException e) {
+                it.remove();
+                continue;
+            }
+            if (size != candidate.size || modified != candidate.modified || candidate.stableSince == 0) {
+                candidate.size = size;
+                candidate.modified = modified;
+                candidate.stableSince = now;
+                continue;
+            }
+            if (now - candidate.stableSince < this.debounceMillis)
+                continue;
+
+            it.remove();
+            if (this.journal.isSent(candidate.file, size, modified))
+                continue;
+            this.inFlight.add(candidate.file);
+            this.workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    send(candidate);
+                }
+            });
+        }
+    }
+
+    private void send(Candidate candidate) {
+        FileSender sender = null;
+        Path scratchFolder = null;
+        Cancellation cancellation = new Cancellation();
+        this.sending.add(cancellation);
+        try {
+            if (this.closed)
+                return;
+            sender = this.idleSenders.take();
+            scratchFolder = Files.createTempDirectory("blindsend-watch");
+            sender.setScratchFolder(scratchFolder);
+            URL link = this.linkSource.linkFor(candidate.file);
+            sender.encryptAndSendFile(link, candidate.file, cancellation);
+            // the version checked before sending is journaled, so a file changed while being sent is sent again
+            this.journal.recordSent(candidate.file, candidate.size, candidate.modified, link.toString());
+            LOGGER.info("Sent " + candidate.file + " to " + link);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            if (!this.closed) {
+                long retryMillis = Math.min(MAX_RETRY_MILLIS, 1000L << Math.min(candidate.attempts, 20));
+                LOGGER.warn("Sending " + candidate.file + " failed, retrying in " + retryMillis + " ms", e);
+                this.failed.add(new Candidate(candidate.file, candidate.attempts + 1, System.currentTimeMillis() + retryMillis));
+            }
+        } finally {
+            this.sending.remove(cancellation);
+            if (scratchFolder != null)
+                FileUtils.deleteQuietly(scratchFolder.toFile());
+            if (sender != null)
+                this.idleSenders.add(sender);
+            this.inFlight.remove(candidate.file);
+        }
+    }
+
+    private static class Candidate {
+        final Path file;
+        final int attempts;
+        final long notBefore;
+        long size;
+        long modified;
+        long stableSince;
+
+        Candidate(Path file, int attempts, long notBefore) {
+            this.file = file;
+            this.attempts = attempts;
+            this.notBefore = notBefore;
+        }
+    }
+}
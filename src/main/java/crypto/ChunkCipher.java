@@ -0,0 +1,47 @@
+package crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Seals and opens the chunks of the chunked format. Every chunk is an AEAD message whose nonce is the base nonce
+ * of the file combined with the chunk index, and whose associated data binds the chunk index and whether the chunk is
+ * the last one, so that chunks can't be reordered, dropped or cut off without failing authentication
+ */
+class ChunkCipher {
+
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+
+    private final CipherSuite suite;
+    private final Cipher cipher;
+    private final SecretKey key;
+    private final byte[] baseNonce;
+
+    ChunkCipher(CipherSuite suite, byte[] masterKey, byte[] baseNonce) throws GeneralSecurityException {
+        this.suite = suite;
+        this.cipher = suite.newCipher();
+        this.key = suite.key(masterKey);
+        this.baseNonce = baseNonce;
+    }
+
+    byte[] seal(byte[] plaintext, int off, int len, long index, boolean last) throws GeneralSecurityException {
+        init(Cipher.ENCRYPT_MODE, index, last);
+        return this.cipher.doFinal(plaintext, off, len);
+    }
+
+    byte[] open(byte[] ciphertext, int off, int len, long index, boolean last) throws GeneralSecurityException {
+        init(Cipher.DECRYPT_MODE, index, last);
+        return this.cipher.doFinal(ciphertext, off, len);
+    }
+
+    private void init(int mode, long index, boolean last) throws GeneralSecurityException {
+        byte[] nonce = this.baseNonce.clone();
+        for (int i = 0; i < 8; i++)
+            nonce[nonce.length - 1 - i] ^= (byte) (index >>> (8 * i));
+        this.cipher.init(mode, this.key, this.suite.parameters(nonce));
+        this.cipher.updateAAD(ByteBuffer.allocate(9).putLong(index).put((byte) (last ? 1 : 0)).array());
+    }
+}
@@ -0,0 +1,186 @@
+package crypto;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CipherProviderBenchmark class measures the throughput of a cipher suite for every installed security provider
+ * offering it. Before being measured, each provider encrypts and decrypts a known message, and its output is compared
+ * byte for byte with the output of the other providers. Providers whose output differs are left out.
+ * The JDK provider only reaches its full speed once the JIT has compiled its cipher routines into AES and carry-less
+ * multiplication instructions, which takes thousands of calls, so providers are warmed up before being measured
+ */
+public class CipherProviderBenchmark {
+
+    final static Logger LOGGER = LogManager.getLogger(CipherProviderBenchmark.class);
+
+    /**
+     * Provider of the JDK, preferred whenever it passes the self-test
+     */
+    public static final String JDK_PROVIDER = "SunJCE";
+
+    // small messages make the JIT compile the cipher routines after far less data than chunk-sized ones
+    private static final int WARM_UP_MESSAGE_SIZE = 4 * 1024;
+    private static final long TIE_BREAK_MILLIS = 200;
+
+    /**
+     * Measures the throughput of all the implementations of a cipher suite whose output matches the reference
+     * implementation. The reference is Bouncy Castle when it offers the suite, otherwise the first provider offering it.
+     * Each provider is warmed up with small messages for the given time, then with messages of the measured size for
+     * the same time, before being measured for that time
+     * @param suite Cipher suite
+     * @param messageSize Size of the messages encrypted during the benchmark
+     * @param millis Time each provider is measured for, and each of its two warm-up phases lasts
+     * @return Throughput in bytes per second, by provider name, in provider preference order
+     */
+    public static Map<String, Double> measure(CipherSuite suite, int messageSize, long millis) {
+        return measure(suite, verifiedProviders(suite), messageSize, millis);
+    }
+
+    /**
+     * Selects the implementation of a cipher suite to use. The JDK provider is selected whenever it passes the
+     * self-test, since a benchmark short enough to run at startup can't see its compiled speed. Otherwise the fastest
+     * of the other providers is selected with a short benchmark
+     * @param suite Cipher suite
+     * @return Name of the selected provider, or null if no provider passed the self-test
+     */
+    public static String preferredProvider(CipherSuite suite) {
+        List<String> providers = verifiedProviders(suite);
+        if (providers.contains(JDK_PROVIDER))
+            return JDK_PROVIDER;
+        if (providers.size() < 2)
+            return providers.isEmpty() ? null : providers.get(0);
+
+        String fastest = null;
+        double best = 0;
+        for (Map.Entry<String, Double> result : measure(suite, providers, 64 * 1024, TIE_BREAK_MILLIS).entrySet()) {
+            LOGGER.info(suite.getId() + " of provider " + result.getKey() + ": " + Math.round(result.getValue() / (1024 * 1024)) + " MiB/s");
+            if (result.getValue() > best) {
+                best = result.getValue();
+                fastest = result.getKey();
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * @return Names of the providers offering the suite whose output matches the reference implementation, in
+     * provider preference order
+     */
+    static List<String> verifiedProviders(CipherSuite suite) {
+        Map<String, byte[]> answers = new LinkedHashMap<>();
+        for (Provider provider : Security.getProviders()) {
+            try {
+                answers.put(provider.getName(), knownAnswer(suite, provider.getName()));
+            } catch (NoSuchAlgorithmException e) {
+                // provider doesn't offer the suite
+            } catch (GeneralSecurityException | RuntimeException e) {
+                LOGGER.warn(suite.getId() + " of provider " + provider.getName() + " failed the self-test, skipping it", e);
+            }
+        }
+        List<String> verified = new ArrayList<>();
+        if (answers.isEmpty())
+            return verified;
+
+        byte[] reference = answers.containsKey("BC") ? answers.get("BC") : answers.values().iterator().next();
+        for (Map.Entry<String, byte[]> answer : answers.entrySet()) {
+            if (Arrays.equals(reference, answer.getValue()))
+                verified.add(answer.getKey());
+            else
+                LOGGER.warn(suite.getId() + " of provider " + answer.getKey() + " doesn't match the reference output, skipping it");
+        }
+        return verified;
+    }
+
+    /**
+     * Encrypts and decrypts a fixed message with a fixed key, nonce and associated data
+     * @return Ciphertext followed by the decrypted message
+     */
+    static byte[] knownAnswer(CipherSuite suite, String provider) throws GeneralSecurityException {
+        SecretKey key = suite.key(pattern(32, 1));
+        AlgorithmParameterSpec spec = suite.parameters(pattern(12, 2));
+        byte[] aad = pattern(9, 3);
+        byte[] message = pattern(1000, 4);
+
+        Cipher cipher = suite.newCipher(provider);
+        cipher.init(Cipher.ENCRYPT_MODE, key, spec);
+        cipher.updateAAD(aad);
+        byte[] ciphertext = cipher.doFinal(message);
+
+        cipher = suite.newCipher(provider);
+        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+        cipher.updateAAD(aad);
+        byte[] decrypted = cipher.doFinal(ciphertext);
+        if (!Arrays.equals(message, decrypted))
+            throw new GeneralSecurityException("Decrypted message doesn't match the original");
+
+        return ByteBuffer.allocate(ciphertext.length + decrypted.length).put(ciphertext).put(decrypted).array();
+    }
+
+    private static Map<String, Double> measure(CipherSuite suite, List<String> providers, int messageSize, long millis) {
+        Map<String, Double> throughput = new LinkedHashMap<>();
+        for (String name : providers) {
+            try {
+                throughput.put(name, measure(suite, name, messageSize, millis));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                LOGGER.warn(suite.getId() + " of provider " + name + " failed the benchmark, skipping it", e);
+            }
+        }
+        return throughput;
+    }
+
+    private static double measure(CipherSuite suite, String provider, int messageSize, long millis) throws GeneralSecurityException {
+        SecretKey key = suite.key(pattern(32, 5));
+        Cipher cipher = suite.newCipher(provider);
+        long[] counter = new long[1];
+
+        encryptFor(suite, cipher, key, counter, pattern(Math.min(messageSize, WARM_UP_MESSAGE_SIZE), 6), millis);
+        byte[] message = pattern(messageSize, 6);
+        encryptFor(suite, cipher, key, counter, message, millis);
+
+        long start = System.nanoTime();
+        long messages = encryptFor(suite, cipher, key, counter, message, millis);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        return (double) messageSize * messages * 1e9 / elapsed;
+    }
+
+    /**
+     * Encrypts the message over and over until the time is up
+     * @param counter Counter the nonces are derived from, carried over between calls
+     * @return Number of messages encrypted
+     */
+    private static long encryptFor(CipherSuite suite, Cipher cipher, SecretKey key, long[] counter, byte[] message, long millis) throws GeneralSecurityException {
+        byte[] nonce = new byte[12];
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long messages = 0;
+        do {
+            // some implementations refuse to reuse a nonce with the same key
+            ByteBuffer.wrap(nonce, 4, 8).putLong(counter[0]++);
+            cipher.init(Cipher.ENCRYPT_MODE, key, suite.parameters(nonce));
+            cipher.doFinal(message);
+            messages++;
+        } while (System.nanoTime() < end);
+        return messages;
+    }
+
+    private static byte[] pattern(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (i * 31 + seed);
+        return bytes;
+    }
+}
@@ -0,0 +1,108 @@
+package crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * Bulk ciphers that files can be encrypted with. Both suites are AEAD ciphers with 256 bit keys, 96 bit nonces and
+ * 128 bit tags, so they are interchangeable in the chunked format. The suite of a file is carried in its stream
+ * encryption header, so receivers pick the right one automatically. Each suite has its own security provider,
+ * Bouncy Castle by default
+ */
+public enum CipherSuite {
+
+    /**
+     * AES-256 in GCM mode. Fastest on hosts with AES and carry-less multiplication instructions
+     */
+    AES_GCM("aes-gcm", "AES/GCM/NoPadding", "AES") {
+        @Override
+        AlgorithmParameterSpec parameters(byte[] nonce) {
+            return new GCMParameterSpec(128, nonce);
+        }
+    },
+
+    /**
+     * ChaCha20-Poly1305 (RFC 8439). Faster than AES-GCM on hosts without AES instructions
+     */
+    CHACHA20_POLY1305("chacha20-poly1305", "ChaCha20-Poly1305", "ChaCha20") {
+        @Override
+        AlgorithmParameterSpec parameters(byte[] nonce) {
+            return new IvParameterSpec(nonce);
+        }
+    };
+
+    private final String id;
+    private final String transformation;
+    private final String keyAlgorithm;
+    private volatile String provider = "BC";
+
+    CipherSuite(String id, String transformation, String keyAlgorithm) {
+        this.id = id;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /**
+     * Finds a suite by the id carried in stream encryption headers
+     * @param id Suite id
+     * @return Cipher suite
+     * @throws IllegalArgumentException if no suite has this id
+     */
+    public static CipherSuite fromId(String id) {
+        for (CipherSuite suite : values()) {
+            if (suite.id.equals(id))
+                return suite;
+        }
+        throw new IllegalArgumentException("Unknown cipher suite: " + id);
+    }
+
+    /**
+     * @return Id carried in stream encryption headers
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return JCE transformation of the cipher
+     */
+    public String getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * @return Name of the security provider used for this suite
+     */
+    public String getProvider() {
+        return provider;
+    }
+
+    /**
+     * Sets the security provider used for this suite
+     * @param provider Name of an installed provider offering the cipher
+     * @throws GeneralSecurityException if the provider doesn't offer the cipher
+     */
+    public void setProvider(String provider) throws GeneralSecurityException {
+        newCipher(provider);
+        this.provider = provider;
+    }
+
+    Cipher newCipher() throws GeneralSecurityException {
+        return newCipher(this.provider);
+    }
+
+    Cipher newCipher(String provider) throws GeneralSecurityException {
+        return Cipher.getInstance(this.transformation, provider);
+    }
+
+    SecretKey key(byte[] masterKey) {
+        return new SecretKeySpec(masterKey, 0, masterKey.length, this.keyAlgorithm);
+    }
+
+    abstract AlgorithmParameterSpec parameters(byte[] nonce);
+}
@@ -1,15 +1,22 @@
 package crypto;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
 import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
 import org.bouncycastle.crypto.prng.FixedSecureRandom;
+import org.bouncycastle.crypto.util.SubjectPublicKeyInfoFactory;
+import org.bouncycastle.math.ec.rfc7748.X25519;
 import util.BlindsendUtil;
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.security.*;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
 
 /**
  * The CryptoFactory class provides methods for generating cryptographic primitives required by blindsend.
@@ -17,6 +24,46 @@ import java.security.*;
  */
 public class CryptoFactory {
 
+    private static volatile SecureRandom random;
+    private static volatile SecureRandom keyRandom;
+
+    /**
+     * Sets the security provider used for bulk encryption and decryption of files with AES-GCM.
+     * Key generation, key agreement and key derivation always use Bouncy Castle
+     * @param provider Name of an installed provider offering AES/GCM/NoPadding
+     * @throws GeneralSecurityException if the provider doesn't offer AES/GCM/NoPadding
+     */
+    public static void setBulkCipherProvider(String provider) throws GeneralSecurityException {
+        CipherSuite.AES_GCM.setProvider(provider);
+    }
+
+    /**
+     * @return Name of the security provider used for bulk encryption and decryption of files with AES-GCM.
+     * Defaults to "BC"
+     */
+    public static String getBulkCipherProvider() {
+        return CipherSuite.AES_GCM.getProvider();
+    }
+
+    /**
+     * Selects for every cipher suite the JDK implementation when its output matches the others byte for byte, since it
+     * uses AES-NI instructions once compiled, and otherwise the fastest installed implementation that does.
+     * Meant to be called once at startup, after Bouncy Castle has been registered
+     * @return Name of the provider selected for AES-GCM
+     */
+    public static String selectBulkCipherProvider() {
+        for (CipherSuite suite : CipherSuite.values()) {
+            String fastest = CipherProviderBenchmark.preferredProvider(suite);
+            try {
+                if (fastest != null)
+                    suite.setProvider(fastest);
+            } catch (GeneralSecurityException e) {
+                // keep the current provider
+            }
+        }
+        return getBulkCipherProvider();
+    }
+
     /**
      * Generates PK-SK (X25519)
      * @return Key pair
@@ -28,6 +75,26 @@ public class CryptoFactory {
         return keyPair.generateKeyPair();
     }
 
+    /**
+     * Generates an ephemeral PK-SK (X25519) for a single key agreement. Unlike the private keys of Bouncy Castle,
+     * its private key really is wiped by destroy(). It can only be used with generateMasterKey
+     * @return Key pair
+     * @throws GeneralSecurityException
+     */
+    public static KeyPair generateEphemeralKeyPair() throws GeneralSecurityException {
+        byte[] scalar = new byte[X25519.SCALAR_SIZE];
+        X25519.generatePrivateKey(keyRandom(), scalar);
+        byte[] point = new byte[X25519.POINT_SIZE];
+        X25519.generatePublicKey(scalar, 0, point, 0);
+        try {
+            byte[] encoded = SubjectPublicKeyInfoFactory.createSubjectPublicKeyInfo(new X25519PublicKeyParameters(point, 0)).getEncoded();
+            PublicKey pk = KeyFactory.getInstance("XDH", "BC").generatePublic(new X509EncodedKeySpec(encoded));
+            return new KeyPair(pk, new EphemeralPrivateKey(scalar));
+        } catch (IOException e) {
+            throw new InvalidKeySpecException(e);
+        }
+    }
+
     /**
      * Generates PK-SK (X25519)
      * @param keyPairSeed Seed for key pair generation
@@ -42,17 +109,57 @@ public class CryptoFactory {
     }
 
     /**
-     * Generates a random bytes of length len
+     * Generates a random bytes of length len, for public values such as nonces, IVs and salts
      * @param len length of random value to generate
      * @return salt
      */
     public static byte[] generateRandom(int len) throws NoSuchProviderException, NoSuchAlgorithmException {
-        SecureRandom random = SecureRandom.getInstance("NonceAndIV", "BC");
         byte[] kBytes = new byte[len];
-        random.nextBytes(kBytes);
+        random().nextBytes(kBytes);
         return kBytes;
     }
 
+    /**
+     * Generates secret random bytes of length len, e.g. a key, with a key-grade DRBG
+     * @param len length of random value to generate
+     * @return Secret random bytes
+     */
+    public static byte[] generateSecretRandom(int len) throws NoSuchProviderException, NoSuchAlgorithmException {
+        byte[] kBytes = new byte[len];
+        keyRandom().nextBytes(kBytes);
+        return kBytes;
+    }
+
+    /**
+     * @return DRBG for nonces and IVs shared by all callers, so that it is only seeded once
+     */
+    private static SecureRandom random() throws NoSuchProviderException, NoSuchAlgorithmException {
+        SecureRandom shared = random;
+        if (shared == null) {
+            synchronized (CryptoFactory.class) {
+                if (random == null)
+                    random = SecureRandom.getInstance("NonceAndIV", "BC");
+                shared = random;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @return DRBG for key material shared by all callers. NonceAndIV is only meant for public values
+     */
+    private static SecureRandom keyRandom() throws NoSuchProviderException, NoSuchAlgorithmException {
+        SecureRandom shared = keyRandom;
+        if (shared == null) {
+            synchronized (CryptoFactory.class) {
+                if (keyRandom == null)
+                    keyRandom = SecureRandom.getInstance("DEFAULT", "BC");
+                shared = keyRandom;
+            }
+        }
+        return shared;
+    }
+
     /**
      * Generates a seed for key pair generation. Uses Argon2id hashing algorithm
      * @param password Password
@@ -84,12 +191,25 @@ public class CryptoFactory {
      * @throws InvalidKeyException
      */
     public static byte[] generateMasterKey(PrivateKey sk, PublicKey pk) throws NoSuchProviderException, NoSuchAlgorithmException, InvalidKeyException {
+        if (sk instanceof EphemeralPrivateKey)
+            return generateMasterKey((EphemeralPrivateKey) sk, pk);
         KeyAgreement agreement = KeyAgreement.getInstance("XDH", "BC");
         agreement.init(sk);
         agreement.doPhase(pk, true);
         return agreement.generateSecret("AES").getEncoded();
     }
 
+    private static byte[] generateMasterKey(EphemeralPrivateKey sk, PublicKey pk) throws InvalidKeyException {
+        byte[] point = SubjectPublicKeyInfo.getInstance(pk.getEncoded()).getPublicKeyData().getBytes();
+        if (point.length != X25519.POINT_SIZE)
+            throw new InvalidKeyException("Not an X25519 public key");
+        byte[] secret = new byte[X25519.POINT_SIZE];
+        // same result as the XDH KeyAgreement, which rejects an all-zero shared secret as well
+        if (!X25519.calculateAgreement(sk.getScalar(), 0, point, 0, secret, 0))
+            throw new InvalidKeyException("Key agreement produced an all-zero shared secret");
+        return secret;
+    }
+
     /**
      * Encrypts a file and saves it to disk
      * @param masterKey Master key for file encryption
@@ -122,18 +242,101 @@ public class CryptoFactory {
 
         SecretKey key = new SecretKeySpec(masterKey, 0, masterKey.length, "AES");
         byte[] decryptedFileBytes = decryptAesGcm(encryptedFileAsBytes, key, iv);
-        FileUtils.writeByteArrayToFile(new File(decryptedFilePath), BlindsendUtil.concatenate(iv, decryptedFileBytes));
+        FileUtils.writeByteArrayToFile(new File(decryptedFilePath), decryptedFileBytes);
     }
 
-    protected static byte[] encryptAesGcm(byte[] msg, SecretKey key, byte[] iv) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+    /**
+     * Wraps a stream so that everything written to it is encrypted in the chunked format with AES-GCM. The stream
+     * encryption header to send with the file is available from the returned stream once it is closed
+     * @param masterKey Master key for encryption
+     * @param out Stream to write encrypted data to. It is closed, together with the returned stream
+     * @return Stream encrypting the data written into it
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static EncryptingOutputStream encryptStream(byte[] masterKey, OutputStream out) throws IOException, GeneralSecurityException {
+        return encryptStream(masterKey, out, CipherSuite.AES_GCM);
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is encrypted in the chunked format with the given cipher suite.
+     * The stream encryption header to send with the file is available from the returned stream once it is closed
+     * @param masterKey Master key for encryption
+     * @param out Stream to write encrypted data to. It is closed, together with the returned stream
+     * @param suite Cipher suite
+     * @return Stream encrypting the data written into it
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static EncryptingOutputStream encryptStream(byte[] masterKey, OutputStream out, CipherSuite suite) throws IOException, GeneralSecurityException {
+        return new EncryptingOutputStream(masterKey, out, suite, StreamEncryptionHeader.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Computes the length of a file encrypted by encryptStream, so that it can be uploaded while it is encrypted
+     * @param plaintextLength Length of the plaintext in bytes
+     * @return Length of the encrypted file in bytes
+     */
+    public static long encryptedLength(long plaintextLength) {
+        long chunkSize = StreamEncryptionHeader.DEFAULT_CHUNK_SIZE;
+        // an empty plaintext is still encrypted as one (empty) chunk
+        long chunks = Math.max(1, (plaintextLength + chunkSize - 1) / chunkSize);
+        return ChunkCipher.NONCE_LENGTH + plaintextLength + chunks * ChunkCipher.TAG_LENGTH;
+    }
+
+    /**
+     * Wraps a stream of encrypted data so that reading from it returns the decrypted data. Data in the chunked format
+     * is authenticated chunk by chunk, as it is read. Data encrypted as a single AES/GCM message (empty header) is
+     * only authenticated when the stream is read to the end
+     * @param masterKey Master key for decryption
+     * @param in Stream of encrypted data
+     * @param streamEncryptionHeader Stream encryption header received with the file
+     * @return Stream returning the decrypted data
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static InputStream decryptStream(byte[] masterKey, InputStream in, String streamEncryptionHeader) throws IOException, GeneralSecurityException {
+        StreamEncryptionHeader header = StreamEncryptionHeader.parse(streamEncryptionHeader);
+        if (header != null)
+            return new DecryptingInputStream(masterKey, in, header);
+
+        byte[] iv = new byte[16];
+        if (IOUtils.read(in, iv) != iv.length)
+            throw new IntegrityException("Encrypted stream is truncated");
+        SecretKey key = new SecretKeySpec(masterKey, 0, masterKey.length, "AES");
+        // Bouncy Castle releases GCM plaintext progressively, where other providers buffer the whole message
         Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", "BC");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        return new CipherInputStream(in, cipher);
+    }
+
+    /**
+     * Opens a file encrypted in the chunked format for random access to its plaintext. Only the chunks covering the
+     * bytes read are fetched from the source and decrypted
+     * @param masterKey Master key for decryption
+     * @param source Encrypted file. It is closed with the returned channel
+     * @param streamEncryptionHeader Stream encryption header received with the file
+     * @param cachedChunks Number of decrypted chunks kept in memory
+     * @return Read-only channel of the decrypted data
+     * @throws IOException if the file was encrypted as a single AES/GCM message, which can only be read sequentially
+     * @throws GeneralSecurityException
+     */
+    public static DecryptingChannel decryptChannel(byte[] masterKey, DecryptingChannel.Source source, String streamEncryptionHeader, int cachedChunks) throws IOException, GeneralSecurityException {
+        StreamEncryptionHeader header = StreamEncryptionHeader.parse(streamEncryptionHeader);
+        if (header == null)
+            throw new IOException("Files encrypted as a single message can only be decrypted sequentially");
+        return new DecryptingChannel(masterKey, source, header, cachedChunks);
+    }
+
+    protected static byte[] encryptAesGcm(byte[] msg, SecretKey key, byte[] iv) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", CipherSuite.AES_GCM.getProvider());
         GCMParameterSpec spec = new GCMParameterSpec(128, iv);
         cipher.init(Cipher.ENCRYPT_MODE, key, spec);
         return cipher.doFinal(msg);
     }
 
     protected static byte[] decryptAesGcm(byte[] ct, SecretKey key, byte[] iv) throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException, BadPaddingException, IllegalBlockSizeException, InvalidAlgorithmParameterException, InvalidKeyException {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", "BC");
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", CipherSuite.AES_GCM.getProvider());
         GCMParameterSpec spec = new GCMParameterSpec(128, iv);
         cipher.init(Cipher.DECRYPT_MODE, key, spec);
         return cipher.doFinal(ct);
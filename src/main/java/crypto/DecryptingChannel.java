@@ -0,0 +1,226 @@
+package crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only channel giving random access to the plaintext of a file encrypted in the chunked format. Only the chunks
+ * covering the bytes read are fetched from the source, and each of them is authenticated before any of its plaintext
+ * is returned. Chunks are authenticated with their index and with whether they are the last one, so reordered,
+ * dropped or cut off chunks are detected, but the digest of the whole file can only be verified by reading it
+ * sequentially with DecryptingInputStream. Recently used chunks are cached
+ */
+public class DecryptingChannel implements SeekableByteChannel {
+
+    /**
+     * Encrypted file with random access
+     */
+    public interface Source extends Closeable {
+        /**
+         * @return Size of the encrypted file in bytes
+         */
+        long size() throws IOException;
+
+        /**
+         * Reads bytes of the encrypted file
+         * @param position Position of the first byte to read
+         * @param b Buffer
+         * @param off Offset in the buffer
+         * @param len Number of bytes to read
+         * @throws java.io.EOFException if the file ends before len bytes could be read
+         */
+        void readFully(long position, byte[] b, int off, int len) throws IOException;
+    }
+
+    private final Source source;
+    private final ChunkCipher cipher;
+    private final int chunkSize;
+    private final long encryptedSize;
+    private final long chunkCount;
+    private final long size;
+    private final int cachedChunks;
+    private final Map<Long, byte[]> cache;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * Creates new DecryptingChannel and reads the base nonce from the source
+     * @param masterKey Master key for decryption
+     * @param source Encrypted file. It is closed with the channel
+     * @param header Header the file was encrypted with
+     * @param cachedChunks Number of decrypted chunks kept in memory
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public DecryptingChannel(byte[] masterKey, Source source, StreamEncryptionHeader header, final int cachedChunks) throws IOException, GeneralSecurityException {
+        this.source = source;
+        this.chunkSize = header.getChunkSize();
+        this.encryptedSize = source.size();
+        long encryptedChunks = this.encryptedSize - ChunkCipher.NONCE_LENGTH;
+        if (encryptedChunks < ChunkCipher.TAG_LENGTH)
+            throw new IntegrityException("Encrypted file is truncated");
+        // every chunk but the last one is full, and the last one holds at least its tag
+        this.chunkCount = (encryptedChunks + this.chunkSize + ChunkCipher.TAG_LENGTH - 1) / (this.chunkSize + ChunkCipher.TAG_LENGTH);
+        this.size = encryptedChunks - this.chunkCount * ChunkCipher.TAG_LENGTH;
+
+        byte[] baseNonce = new byte[ChunkCipher.NONCE_LENGTH];
+        source.readFully(0, baseNonce, 0, baseNonce.length);
+        this.cipher = new ChunkCipher(header.getCipherSuite(), masterKey, baseNonce);
+        this.cachedChunks = Math.max(1, cachedChunks);
+        this.cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > DecryptingChannel.this.cachedChunks;
+            }
+        };
+    }
+
+    /**
+     * Creates a source reading a local encrypted file
+     * @param channel Channel of the encrypted file
+     * @return Source
+     */
+    public static Source fileSource(final FileChannel channel) {
+        return new Source() {
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public void readFully(long position, byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position() - off) == -1)
+                        throw new IntegrityException("Encrypted file is truncated");
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (this.position >= this.size)
+            return -1;
+        long end = Math.min(this.size, this.position + dst.remaining());
+        int read = 0;
+        while (this.position < end) {
+            long index = this.position / this.chunkSize;
+            byte[] plaintext = chunk(index, (end - 1) / this.chunkSize);
+            int offset = (int) (this.position - index * this.chunkSize);
+            int n = (int) Math.min(plaintext.length - offset, end - this.position);
+            dst.put(plaintext, offset, n);
+            this.position += n;
+            read += n;
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return this.position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0)
+            throw new IllegalArgumentException("Negative position");
+        this.position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return Size of the plaintext in bytes
+     */
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return this.size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.open)
+            return;
+        this.open = false;
+        for (byte[] plaintext : this.cache.values())
+            Arrays.fill(plaintext, (byte) 0);
+        this.cache.clear();
+        this.source.close();
+    }
+
+    /**
+     * Returns the plaintext of a chunk. When the chunk isn't cached, the following uncached chunks up to lastNeeded
+     * are fetched with it in a single read, so that sequential reads don't cost one source read per chunk
+     */
+    private byte[] chunk(long index, long lastNeeded) throws IOException {
+        byte[] plaintext = this.cache.get(index);
+        if (plaintext != null)
+            return plaintext;
+
+        long last = Math.min(lastNeeded, index + this.cachedChunks - 1);
+        for (long i = index + 1; i <= last; i++) {
+            if (this.cache.containsKey(i)) {
+                last = i - 1;
+                break;
+            }
+        }
+        int fullChunk = this.chunkSize + ChunkCipher.TAG_LENGTH;
+        long start = ChunkCipher.NONCE_LENGTH + index * fullChunk;
+        long stop = Math.min(this.encryptedSize, ChunkCipher.NONCE_LENGTH + (last + 1) * fullChunk);
+        byte[] encrypted = new byte[(int) (stop - start)];
+        this.source.readFully(start, encrypted, 0, encrypted.length);
+
+        byte[] first = null;
+        for (long i = index; i <= last; i++) {
+            int off = (int) ((i - index) * fullChunk);
+            int len = Math.min(fullChunk, encrypted.length - off);
+            try {
+                plaintext = this.cipher.open(encrypted, off, len, i, i == this.chunkCount - 1);
+            } catch (GeneralSecurityException e) {
+                throw new IntegrityException("Chunk " + i + " failed authentication", e);
+            }
+            if (first == null)
+                first = plaintext;
+            this.cache.put(i, plaintext);
+        }
+        return first;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!this.open)
+            throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,108 @@
+package crypto;
+
+import org.apache.commons.io.IOUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Stream decrypting data encrypted by EncryptingOutputStream. Every chunk is authenticated before any of its plaintext
+ * is returned, so reading fails with IntegrityException at the first corrupted chunk, and never returns unverified data.
+ * The digest of the whole encrypted stream is verified before the plaintext of the last chunk is returned
+ */
+public class DecryptingInputStream extends InputStream {
+
+    private final PushbackInputStream in;
+    private final ChunkCipher cipher;
+    private final MessageDigest digest;
+    private final byte[] expectedDigest;
+    private final byte[] chunk;
+    private long chunkIndex;
+    private byte[] plaintext = new byte[0];
+    private int position;
+    private boolean last;
+
+    /**
+     * Creates new DecryptingInputStream and reads the base nonce
+     * @param masterKey Master key for decryption
+     * @param in Stream of encrypted data
+     * @param header Header the data was encrypted with
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public DecryptingInputStream(byte[] masterKey, InputStream in, StreamEncryptionHeader header) throws IOException, GeneralSecurityException {
+        this.in = new PushbackInputStream(in, 1);
+        this.digest = MessageDigest.getInstance("SHA-256");
+        this.expectedDigest = header.getDigest();
+        this.chunk = new byte[header.getChunkSize() + ChunkCipher.TAG_LENGTH];
+
+        byte[] baseNonce = new byte[ChunkCipher.NONCE_LENGTH];
+        if (IOUtils.read(this.in, baseNonce) != baseNonce.length)
+            throw new IntegrityException("Encrypted stream is truncated");
+        this.digest.update(baseNonce);
+        this.cipher = new ChunkCipher(header.getCipherSuite(), masterKey, baseNonce);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (this.position == this.plaintext.length) {
+            if (this.last)
+                return -1;
+            nextChunk();
+        }
+        int n = Math.min(len, this.plaintext.length - this.position);
+        System.arraycopy(this.plaintext, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.plaintext.length - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    private void nextChunk() throws IOException {
+        int n = IOUtils.read(this.in, this.chunk);
+        if (n < ChunkCipher.TAG_LENGTH)
+            throw new IntegrityException("Encrypted stream is truncated at chunk " + this.chunkIndex);
+        this.digest.update(this.chunk, 0, n);
+
+        boolean last = n < this.chunk.length;
+        if (!last) {
+            int next = this.in.read();
+            if (next == -1)
+                last = true;
+            else
+                this.in.unread(next);
+        }
+
+        byte[] plaintext;
+        try {
+            plaintext = this.cipher.open(this.chunk, 0, n, this.chunkIndex, last);
+        } catch (GeneralSecurityException e) {
+            throw new IntegrityException("Chunk " + this.chunkIndex + " failed authentication", e);
+        }
+        if (last && !MessageDigest.isEqual(this.digest.digest(), this.expectedDigest))
+            throw new IntegrityException("Digest of the encrypted stream doesn't match the header");
+
+        this.chunkIndex++;
+        this.last = last;
+        this.plaintext = plaintext;
+        this.position = 0;
+    }
+}
@@ -0,0 +1,117 @@
+package crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Stream encrypting everything written into it in the chunked format: a random base nonce followed by separately
+ * authenticated chunks. A SHA-256 digest of the encrypted output is computed on the fly, and is available in the
+ * stream encryption header once the stream is closed
+ */
+public class EncryptingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final CipherSuite suite;
+    private final ChunkCipher cipher;
+    private final MessageDigest digest;
+    private final byte[] buffer;
+    private int buffered;
+    private long chunkIndex;
+    private long length;
+    private StreamEncryptionHeader header;
+
+    /**
+     * Creates new EncryptingOutputStream and writes the base nonce
+     * @param masterKey Master key for encryption
+     * @param out Stream to write encrypted data to. It is closed together with this stream
+     * @param suite Cipher suite to encrypt the chunks with
+     * @param chunkSize Size of plaintext chunks, between StreamEncryptionHeader.MIN_CHUNK_SIZE and MAX_CHUNK_SIZE
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public EncryptingOutputStream(byte[] masterKey, OutputStream out, CipherSuite suite, int chunkSize) throws IOException, GeneralSecurityException {
+        // receivers reject headers with other chunk sizes
+        if (chunkSize < StreamEncryptionHeader.MIN_CHUNK_SIZE || chunkSize > StreamEncryptionHeader.MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunk size out of range: " + chunkSize);
+        byte[] baseNonce = CryptoFactory.generateRandom(ChunkCipher.NONCE_LENGTH);
+        this.out = out;
+        this.suite = suite;
+        this.cipher = new ChunkCipher(suite, masterKey, baseNonce);
+        this.digest = MessageDigest.getInstance("SHA-256");
+        this.buffer = new byte[chunkSize];
+        emit(baseNonce);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.header != null)
+            throw new IOException("Stream closed");
+        while (len > 0) {
+            // a full chunk is only sealed once more data arrives, as the last chunk is sealed differently
+            if (this.buffered == this.buffer.length)
+                seal(false);
+            int n = Math.min(len, this.buffer.length - this.buffered);
+            System.arraycopy(b, off, this.buffer, this.buffered, n);
+            this.buffered += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Seals the last chunk and closes the underlying stream
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.header != null)
+            return;
+        try {
+            seal(true);
+            this.header = new StreamEncryptionHeader(this.suite, this.buffer.length, this.digest.digest());
+        } finally {
+            this.out.close();
+        }
+    }
+
+    /**
+     * @return Header describing the encrypted data, or null if the stream is not closed yet
+     */
+    public StreamEncryptionHeader getHeader() {
+        return this.header;
+    }
+
+    /**
+     * @return Number of encrypted bytes written so far
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    private void seal(boolean last) throws IOException {
+        try {
+            emit(this.cipher.seal(this.buffer, 0, this.buffered, this.chunkIndex++, last));
+            this.buffered = 0;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Encryption of chunk " + (this.chunkIndex - 1) + " failed", e);
+        }
+    }
+
+    private void emit(byte[] data) throws IOException {
+        this.out.write(data);
+        this.digest.update(data);
+        this.length += data.length;
+    }
+}
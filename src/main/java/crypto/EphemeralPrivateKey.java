@@ -0,0 +1,61 @@
+package crypto;
+
+import javax.security.auth.Destroyable;
+import java.security.PrivateKey;
+import java.util.Arrays;
+
+/**
+ * X25519 private key holding its raw scalar, so that it can be zeroed once the key agreement is done.
+ * Key implementations of security providers keep their material in fields that can't be wiped, and their destroy
+ * method fails. The key has no encoding, it is only usable with CryptoFactory.generateMasterKey
+ */
+final class EphemeralPrivateKey implements PrivateKey, Destroyable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] scalar;
+    private volatile boolean destroyed;
+
+    EphemeralPrivateKey(byte[] scalar) {
+        this.scalar = scalar;
+    }
+
+    /**
+     * @return Raw X25519 scalar, not a copy
+     * @throws IllegalStateException if the key has been destroyed
+     */
+    byte[] getScalar() {
+        if (this.destroyed)
+            throw new IllegalStateException("Private key has been destroyed");
+        return this.scalar;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "X25519";
+    }
+
+    @Override
+    public String getFormat() {
+        return null;
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        return null;
+    }
+
+    /**
+     * Zeroes the scalar
+     */
+    @Override
+    public void destroy() {
+        this.destroyed = true;
+        Arrays.fill(this.scalar, (byte) 0);
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return this.destroyed;
+    }
+}
@@ -0,0 +1,29 @@
+package crypto;
+
+import java.io.IOException;
+
+/**
+ * Signals that encrypted data failed authentication or integrity verification, because it was corrupted,
+ * truncated or tampered with
+ */
+public class IntegrityException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new IntegrityException
+     * @param message Description of the failed verification
+     */
+    public IntegrityException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates new IntegrityException
+     * @param message Description of the failed verification
+     * @param cause Exception thrown by the cipher
+     */
+    public IntegrityException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
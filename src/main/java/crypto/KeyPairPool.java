@@ -0,0 +1,111 @@
+package crypto;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.ConcurrencyUtil;
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+import java.io.Closeable;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The KeyPairPool class keeps a bounded supply of fresh ephemeral X25519 key pairs, generated ahead of time on a
+ * low priority background thread, so that senders don't pay for key generation on their critical path.
+ * Every key pair is handed out at most once. The key pairs are made by CryptoFactory.generateEphemeralKeyPair, so
+ * their private keys are zeroed by destroy
+ */
+public class KeyPairPool implements Closeable {
+
+    final static Logger LOGGER = LogManager.getLogger(KeyPairPool.class);
+
+    private final BlockingQueue<KeyPair> ready;
+    private final Thread generator;
+    private volatile boolean closed;
+
+    /**
+     * Creates new KeyPairPool and starts filling it in the background
+     * @param capacity Maximum number of key pairs kept ready
+     */
+    public KeyPairPool(int capacity) {
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.generator = ConcurrencyUtil.threadFactory("blindsend-keypair-pool", Thread.MIN_PRIORITY).newThread(new Runnable() {
+            @Override
+            public void run() {
+                fill();
+            }
+        });
+        this.generator.start();
+    }
+
+    /**
+     * Takes a key pair out of the pool. When the pool is empty (or closed), a key pair is generated on the calling
+     * thread instead, so this method never waits for the background thread
+     * @return Key pair which has never been handed out before
+     * @throws GeneralSecurityException
+     */
+    public KeyPair take() throws GeneralSecurityException {
+        KeyPair keyPair = this.ready.poll();
+        if (keyPair == null) {
+            LOGGER.debug("Key pair pool is empty, generating a key pair inline");
+            return CryptoFactory.generateEphemeralKeyPair();
+        }
+        return keyPair;
+    }
+
+    /**
+     * @return Number of key pairs currently ready
+     */
+    public int available() {
+        return this.ready.size();
+    }
+
+    /**
+     * Stops the background thread and destroys all the key pairs that were not handed out
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.generator.interrupt();
+        drain();
+    }
+
+    /**
+     * Destroys the private key of a key pair which is no longer needed. The private key of an ephemeral key pair is
+     * zeroed; a private key which can't be destroyed is left to the garbage collector
+     * @param keyPair Key pair to destroy
+     */
+    public static void destroy(KeyPair keyPair) {
+        if (keyPair == null || !(keyPair.getPrivate() instanceof Destroyable))
+            return;
+        Destroyable sk = (Destroyable) keyPair.getPrivate();
+        if (sk.isDestroyed())
+            return;
+        try {
+            sk.destroy();
+        } catch (DestroyFailedException e) {
+            // key implementation keeps its material, it is left to the garbage collector
+        }
+    }
+
+    private void fill() {
+        try {
+            while (!this.closed)
+                this.ready.put(CryptoFactory.generateEphemeralKeyPair());
+        } catch (InterruptedException e) {
+            // closed
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Key pair pool stopped, key pairs are generated inline from now on", e);
+        }
+        if (this.closed)
+            drain();
+    }
+
+    private void drain() {
+        KeyPair keyPair;
+        while ((keyPair = this.ready.poll()) != null)
+            destroy(keyPair);
+    }
+}
@@ -0,0 +1,117 @@
+package crypto;
+
+import util.BlindsendUtil;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Describes how an exchanged file was encrypted. The header is sent to blindsend with the stream_enc_header field of
+ * /request/finish-upload, and returned to the receiver by /request/get-keys. It is encoded as a list of
+ * key=value pairs separated by semicolons, e.g. format=chunked-v1;suite=aes-gcm;chunk=65536;sha256=...
+ * Headers without a suite denote AES-GCM
+ * An empty header denotes files encrypted as a single AES/GCM message, as written by CryptoFactory.encryptAndSaveFile
+ */
+public class StreamEncryptionHeader {
+
+    /**
+     * Format of files encrypted in separately authenticated chunks
+     */
+    public static final String FORMAT_CHUNKED = "chunked-v1";
+
+    /**
+     * Size of plaintext chunks used by default
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Smallest size of plaintext chunks accepted in a header
+     */
+    public static final int MIN_CHUNK_SIZE = 1024;
+
+    /**
+     * Largest size of plaintext chunks accepted in a header. The header comes from the sender, and receivers allocate
+     * buffers of the chunk size
+     */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    final static String format = "format";
+    final static String suite = "suite";
+    final static String chunk = "chunk";
+    final static String sha256 = "sha256";
+
+    private CipherSuite cipherSuite;
+    private int chunkSize;
+    private byte[] digest;
+
+    /**
+     * Creates new StreamEncryptionHeader for the chunked format
+     * @param cipherSuite Cipher suite the chunks are encrypted with
+     * @param chunkSize Size of plaintext chunks
+     * @param digest SHA-256 digest of the whole encrypted file
+     */
+    public StreamEncryptionHeader(CipherSuite cipherSuite, int chunkSize, byte[] digest) {
+        this.cipherSuite = cipherSuite;
+        this.chunkSize = chunkSize;
+        this.digest = digest;
+    }
+
+    /**
+     * Parses a header received from blindsend
+     * @param header Encoded header
+     * @return Parsed header, or null if the file was encrypted as a single AES/GCM message
+     * @throws IOException if the header denotes a format this version doesn't support, or a chunk size outside of
+     * MIN_CHUNK_SIZE and MAX_CHUNK_SIZE
+     */
+    public static StreamEncryptionHeader parse(String header) throws IOException {
+        if (header == null || header.isEmpty())
+            return null;
+
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (String field : header.split(";")) {
+            int eq = field.indexOf('=');
+            if (eq > 0)
+                fields.put(field.substring(0, eq), field.substring(eq + 1));
+        }
+        if (!FORMAT_CHUNKED.equals(fields.get(format)) || !fields.containsKey(chunk) || !fields.containsKey(sha256))
+            throw new IOException("Unsupported stream encryption header: " + header);
+        try {
+            CipherSuite cipherSuite = fields.containsKey(suite) ? CipherSuite.fromId(fields.get(suite)) : CipherSuite.AES_GCM;
+            int chunkSize = Integer.parseInt(fields.get(chunk));
+            if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE)
+                throw new IOException("Unsupported chunk size in stream encryption header: " + header);
+            return new StreamEncryptionHeader(cipherSuite, chunkSize, BlindsendUtil.toByte(fields.get(sha256)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed stream encryption header: " + header, e);
+        }
+    }
+
+    /**
+     * @return Cipher suite the chunks are encrypted with
+     */
+    public CipherSuite getCipherSuite() {
+        return cipherSuite;
+    }
+
+    /**
+     * @return Size of plaintext chunks
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return SHA-256 digest of the whole encrypted file
+     */
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return Encoded header
+     */
+    @Override
+    public String toString() {
+        return format + "=" + FORMAT_CHUNKED + ";" + suite + "=" + cipherSuite.getId() + ";" + chunk + "=" + chunkSize + ";" + sha256 + "=" + BlindsendUtil.toHex(digest);
+    }
+}
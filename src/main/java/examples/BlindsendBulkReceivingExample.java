@@ -0,0 +1,66 @@
+package examples;
+
+import api.BlindsendAPI;
+import blindsend.BulkReceiver;
+import blindsend.FileReceiver;
+import org.apache.logging.log4j.LogManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runnable example for receiving many files via blindsend
+ * When run, the example reads blindsend links from the standard input, one per line, and receives them concurrently
+ * into the home folder. Once the input ends, it waits for all links and prints the status of each one.
+ * NOTE: all links must have been generated with the password used below
+ */
+public class BlindsendBulkReceivingExample {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(BlindsendBulkReceivingExample.class.getName());
+
+    public static void main(String[] args) {
+        Security.addProvider(new BouncyCastleProvider());
+
+        int parallelism = args.length == 0 ? 8 : Integer.parseInt(args[0]);
+        // lets concurrent downloads keep their connections to the API alive
+        System.setProperty("http.maxConnections", String.valueOf(3 * parallelism));
+        Path decryptedFileFolder = Paths.get(System.getProperty("user.home"));
+
+        BlindsendAPI api = new BlindsendAPI("https://blindsend.tech/api");
+        LOGGER.info("Blindsend API endpoint: " + api.getEndpoint());
+
+        List<BulkReceiver.LinkStatus> statuses = new ArrayList<>();
+        try (BulkReceiver receiver = new BulkReceiver(new FileReceiver(api), decryptedFileFolder, parallelism)) {
+            BufferedReader links = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+            String line;
+            while ((line = links.readLine()) != null) {
+                if (!line.trim().isEmpty())
+                    statuses.add(receiver.submit(new URL(line.trim()), "mypass"));
+            }
+
+            for (BulkReceiver.LinkStatus status : statuses) {
+                try {
+                    status.await();
+                } catch (IOException | GeneralSecurityException e) {
+                    // reported with the status below
+                }
+                LOGGER.info(status.getLink() + ": " + status.getState() + " in " + status.getElapsedMillis() + " ms"
+                        + (status.getError() != null ? " (" + status.getError() + ")" : ""));
+            }
+            LOGGER.info(receiver.getCompleted() + " links received, " + receiver.getFailed() + " failed, "
+                    + Math.round(receiver.getThroughput() / 1024) + " KiB/s");
+        } catch (IOException e) {
+            Logger.getLogger(BlindsendBulkReceivingExample.class.getName()).log(Level.SEVERE, "IOException", e);
+        }
+    }
+}
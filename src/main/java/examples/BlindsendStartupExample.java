@@ -0,0 +1,63 @@
+package examples;
+
+import blindsend.WarmUp;
+import crypto.CryptoFactory;
+import crypto.EncryptingOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runnable example measuring the startup cost of blindsend
+ * When run, the example prints the time the JVM took to reach main, then measures the local crypto work of a file
+ * exchange (key generation, key derivation, key agreement, encryption and decryption of 1 MiB) three times.
+ * With the "warm" argument, WarmUp runs first, so that the first exchange is as fast as the following ones.
+ * The example is also a suitable training run for a class-data sharing archive (see README).
+ */
+public class BlindsendStartupExample {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(BlindsendStartupExample.class.getName());
+
+    public static void main(String[] args) {
+        LOGGER.info("JVM startup: " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        Security.addProvider(new BouncyCastleProvider());
+
+        if (args.length > 0 && args[0].equals("warm"))
+            WarmUp.run(null);
+
+        try {
+            for (int i = 1; i <= 3; i++) {
+                long start = System.nanoTime();
+                exchange();
+                LOGGER.info("Exchange " + i + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        } catch (IOException e) {
+            Logger.getLogger(BlindsendStartupExample.class.getName()).log(Level.SEVERE, "IOException", e);
+        } catch (GeneralSecurityException e) {
+            Logger.getLogger(BlindsendStartupExample.class.getName()).log(Level.SEVERE, "GeneralSecurityException", e);
+        }
+        LOGGER.info("Total: " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+    }
+
+    private static void exchange() throws IOException, GeneralSecurityException {
+        byte[] salt = CryptoFactory.generateRandom(16);
+        KeyPair receiver = CryptoFactory.generateKeyPair(CryptoFactory.generateKeyPairSeed("mypass", salt, 1, 8192));
+        KeyPair sender = CryptoFactory.generateKeyPair();
+        byte[] masterKey = CryptoFactory.generateMasterKey(sender.getPrivate(), receiver.getPublic());
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        EncryptingOutputStream out = CryptoFactory.encryptStream(masterKey, encrypted);
+        out.write(new byte[1024 * 1024]);
+        out.close();
+        IOUtils.skip(CryptoFactory.decryptStream(masterKey, new ByteArrayInputStream(encrypted.toByteArray()), out.getHeader().toString()), Long.MAX_VALUE);
+    }
+}
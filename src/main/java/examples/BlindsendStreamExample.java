@@ -0,0 +1,58 @@
+package examples;
+
+import api.BlindsendAPI;
+import blindsend.FileReceiver;
+import blindsend.FileSender;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import util.BlindsendUtil;
+import java.io.IOException;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runnable example for exchanging streams via blindsend, without files on either side
+ * When run, the example will generate file sharing link, encrypt its standard input while uploading it, then download
+ * and decrypt it again into a digest, and compare the SHA-256 digests of the sent and received data.
+ */
+public class BlindsendStreamExample {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(BlindsendStreamExample.class.getName());
+
+    public static void main(String[] args) {
+        Security.addProvider(new BouncyCastleProvider());
+
+        String fileName = args.length == 0 ? "stdin" : args[0];
+
+        BlindsendAPI api = new BlindsendAPI("https://blindsend.tech/api");
+        LOGGER.info("Blindsend API endpoint: " + api.getEndpoint());
+        FileReceiver receiver = new FileReceiver(api);
+        FileSender sender = new FileSender(api);
+
+        try {
+            URL link = receiver.getLink("mypass");
+
+            // the length of standard input isn't known, so it is uploaded with chunked transfer encoding
+            DigestInputStream source = new DigestInputStream(System.in, MessageDigest.getInstance("SHA-256"));
+            sender.encryptAndSendStream(link, source, -1, fileName);
+            LOGGER.info("Blindsend file exchange link: " + link.toString());
+
+            DigestOutputStream sink = new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, MessageDigest.getInstance("SHA-256"));
+            String receivedFileName = receiver.receiveAndDecrypt(link, "mypass", sink);
+
+            LOGGER.info("Sent " + fileName + ": " + BlindsendUtil.toHex(source.getMessageDigest().digest()));
+            LOGGER.info("Received " + receivedFileName + ": " + BlindsendUtil.toHex(sink.getMessageDigest().digest()));
+        } catch (IOException e) {
+            Logger.getLogger(BlindsendStreamExample.class.getName()).log(Level.SEVERE, "IOException", e);
+        } catch (GeneralSecurityException e) {
+            Logger.getLogger(BlindsendStreamExample.class.getName()).log(Level.SEVERE, "GeneralSecurityException", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package examples;
+
+import api.BlindsendAPI;
+import blindsend.FileReceiver;
+import blindsend.FileSender;
+import blindsend.LinkFactory;
+import blindsend.WatchFolderSender;
+import crypto.KeyPairPool;
+import org.apache.logging.log4j.LogManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runnable example of a sender daemon
+ * When run, the example watches a folder (the first argument, or the current folder) and sends every file written to
+ * it via blindsend, each under a new link, until it is stopped. Sent files are journaled in the home folder, so files
+ * are not sent again when the example is restarted.
+ */
+public class BlindsendWatchFolderExample {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(BlindsendWatchFolderExample.class.getName());
+
+    private static final int WORKERS = 4;
+
+    public static void main(String[] args) {
+        Security.addProvider(new BouncyCastleProvider());
+        // lets concurrent workers keep their connections to the API alive
+        System.setProperty("http.maxConnections", String.valueOf(2 * WORKERS));
+
+        Path watchedFolder = Paths.get(args.length == 0 ? "." : args[0]);
+        Path journalFile = Paths.get(System.getProperty("user.home"), ".blindsend-watch-journal");
+
+        BlindsendAPI api = new BlindsendAPI("https://blindsend.tech/api");
+        LOGGER.info("Blindsend API endpoint: " + api.getEndpoint());
+        final LinkFactory linkFactory = new LinkFactory(api, new FileReceiver(api), WORKERS, 10 * 60 * 1000);
+        KeyPairPool keyPairPool = new KeyPairPool(WORKERS);
+
+        List<FileSender> senders = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            FileSender sender = new FileSender(api);
+            sender.setKeyPairPool(keyPairPool);
+            senders.add(sender);
+        }
+
+        try (WatchFolderSender daemon = new WatchFolderSender(senders, new WatchFolderSender.LinkSource() {
+            @Override
+            public URL linkFor(Path file) throws IOException, GeneralSecurityException {
+                URL link = linkFactory.getLink("mypass");
+                LOGGER.info("Blindsend file exchange link for " + file.getFileName() + ": " + link);
+                return link;
+            }
+        }, journalFile, 2000)) {
+            daemon.watch(watchedFolder);
+            daemon.run();
+        } catch (IOException e) {
+            Logger.getLogger(BlindsendWatchFolderExample.class.getName()).log(Level.SEVERE, "IOException", e);
+        } finally {
+            linkFactory.close();
+            keyPairPool.close();
+        }
+    }
+}
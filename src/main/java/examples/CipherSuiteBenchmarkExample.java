@@ -0,0 +1,92 @@
+package examples;
+
+import crypto.CipherProviderBenchmark;
+import crypto.CipherSuite;
+import crypto.CryptoFactory;
+import crypto.EncryptingOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runnable benchmark comparing the cipher suites files can be encrypted with.
+ * For every suite and every installed provider passing the self-test, it measures the raw cipher throughput after a
+ * warm-up, then the throughput of encrypting and decrypting a file in the chunked format. The size of the file in MiB
+ * can be given as the first argument (64 by default). Finally it logs the providers selectBulkCipherProvider selects
+ */
+public class CipherSuiteBenchmarkExample {
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(CipherSuiteBenchmarkExample.class.getName());
+    private static final long STREAM_WARM_UP_MILLIS = 5000;
+
+    public static void main(String[] args) {
+        Security.addProvider(new BouncyCastleProvider());
+
+        int sizeMiB = args.length == 0 ? 64 : Integer.parseInt(args[0]);
+        byte[] plaintext = new byte[sizeMiB * 1024 * 1024];
+
+        try {
+            byte[] masterKey = CryptoFactory.generateSecretRandom(32);
+            for (CipherSuite suite : CipherSuite.values()) {
+                String selected = suite.getProvider();
+                // the raw benchmark also warms up the cipher routines the streams use
+                for (Map.Entry<String, Double> result : CipherProviderBenchmark.measure(suite, 64 * 1024, 2000).entrySet()) {
+                    String provider = result.getKey();
+                    LOGGER.info(suite.getId() + " raw, provider " + provider + ": " + mibPerSecond(result.getValue()) + " MiB/s");
+                    suite.setProvider(provider);
+                    // the stream digests its ciphertext, and the digest needs to be compiled as well
+                    long warmUpEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STREAM_WARM_UP_MILLIS);
+                    do {
+                        roundTrip(masterKey, plaintext, suite);
+                    } while (System.nanoTime() < warmUpEnd);
+
+                    long[] elapsed = roundTrip(masterKey, plaintext, suite);
+                    LOGGER.info(suite.getId() + " chunked stream, provider " + provider
+                            + ": encryption " + mibPerSecond(plaintext.length * 1e9 / elapsed[0]) + " MiB/s"
+                            + ", decryption " + mibPerSecond(plaintext.length * 1e9 / elapsed[1]) + " MiB/s");
+                }
+                suite.setProvider(selected);
+            }
+            CryptoFactory.selectBulkCipherProvider();
+            for (CipherSuite suite : CipherSuite.values())
+                LOGGER.info(suite.getId() + " provider selected at startup: " + suite.getProvider());
+        } catch (IOException e) {
+            Logger.getLogger(CipherSuiteBenchmarkExample.class.getName()).log(Level.SEVERE, "IOException", e);
+        } catch (GeneralSecurityException e) {
+            Logger.getLogger(CipherSuiteBenchmarkExample.class.getName()).log(Level.SEVERE, "GeneralSecurityException", e);
+        }
+    }
+
+    /**
+     * Encrypts the plaintext into a chunked stream and decrypts it again
+     * @return Nanoseconds spent encrypting and decrypting
+     */
+    private static long[] roundTrip(byte[] masterKey, byte[] plaintext, CipherSuite suite) throws GeneralSecurityException, IOException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(plaintext.length + plaintext.length / 1024 + 64);
+        long start = System.nanoTime();
+        EncryptingOutputStream out = CryptoFactory.encryptStream(masterKey, encrypted, suite);
+        out.write(plaintext);
+        out.close();
+        long encrypting = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        InputStream in = CryptoFactory.decryptStream(masterKey, new ByteArrayInputStream(encrypted.toByteArray()), out.getHeader().toString());
+        IOUtils.skip(in, Long.MAX_VALUE);
+        long decrypting = System.nanoTime() - start;
+        return new long[] { encrypting, decrypting };
+    }
+
+    private static long mibPerSecond(double bytesPerSecond) {
+        return Math.round(bytesPerSecond / (1024 * 1024));
+    }
+}
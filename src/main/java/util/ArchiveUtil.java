@@ -0,0 +1,156 @@
+package util;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The ArchiveUtil class provides helper methods for packing several files into a single archive stream, and for
+ * unpacking such a stream entry by entry. The first entry of every archive is an index listing the names and sizes
+ * of all the other entries, so that a receiver can decide what to extract before reading the entries themselves
+ */
+public class ArchiveUtil {
+
+    /**
+     * Name of the archive entry holding the index
+     */
+    public static final String INDEX_ENTRY_NAME = ".blindsend-index";
+
+    final static String indexName = "name";
+    final static String indexSize = "size";
+
+    /**
+     * Lists all regular files in a folder and its sub-folders
+     * @param folder Folder to list
+     * @return Archive entries, mapping entry names (paths relative to folder) to files
+     * @throws IllegalArgumentException if the folder contains a file named like the index entry
+     * @throws IOException
+     */
+    public static Map<String, Path> folderEntries(final Path folder) throws IOException {
+        final Map<String, Path> entries = new TreeMap<>();
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile())
+                    entries.put(checkEntryName(toEntryName(folder.relativize(file))), file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Maps each file to an archive entry named after the file
+     * @param files Files to pack
+     * @return Archive entries, mapping entry names to files
+     * @throws IllegalArgumentException if two files have the same name, or a file is named like the index entry
+     */
+    public static Map<String, Path> fileEntries(List<Path> files) {
+        Map<String, Path> entries = new LinkedHashMap<>();
+        for (Path file : files) {
+            String name = checkEntryName(file.getFileName().toString());
+            if (entries.containsKey(name))
+                throw new IllegalArgumentException("Duplicate archive entry name: " + name);
+            entries.put(name, file);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes an archive containing the index followed by all the entries. Files are streamed one by one,
+     * so the archive is never held in memory
+     * @param entries Archive entries, mapping entry names to files
+     * @param out Stream to write the archive to. It is flushed, but not closed, when the archive is complete
+     * @throws IOException
+     */
+    public static void writeArchive(Map<String, Path> entries, OutputStream out) throws IOException {
+        JSONArray index = new JSONArray();
+        for (Map.Entry<String, Path> entry : entries.entrySet()) {
+            JSONObject indexEntry = new JSONObject();
+            indexEntry.put(indexName, entry.getKey());
+            indexEntry.put(indexSize, Files.size(entry.getValue()));
+            index.put(indexEntry);
+        }
+
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out));
+        zip.putNextEntry(new ZipEntry(INDEX_ENTRY_NAME));
+        zip.write(index.toString().getBytes("UTF-8"));
+        zip.closeEntry();
+
+        for (Map.Entry<String, Path> entry : entries.entrySet()) {
+            zip.putNextEntry(new ZipEntry(entry.getKey()));
+            Files.copy(entry.getValue(), zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Reads an archive written by writeArchive and saves the selected entries to a folder as they are read.
+     * Each entry appears under its name only once it has been read completely
+     * @param in Archive stream. It is read to the end, but not closed
+     * @param folder Folder to save extracted files into
+     * @param selected Names of the entries to extract, or null to extract all entries
+     * @return Names of all the entries listed in the archive index
+     * @throws IOException
+     */
+    public static List<String> extractArchive(InputStream in, Path folder, Collection<String> selected) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        List<String> names = readIndex(zip);
+
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory() || (selected != null && !selected.contains(entry.getName())))
+                continue;
+            AtomicFiles.copy(zip, AtomicFiles.resolveInside(folder, entry.getName()));
+        }
+
+        // drain the stream, so that a decrypting stream underneath gets to authenticate the whole archive
+        IOUtils.skip(in, Long.MAX_VALUE);
+        return names;
+    }
+
+    /**
+     * Reads only the index of an archive written by writeArchive
+     * @param in Archive stream. Only the first entry is read, and the stream is not closed
+     * @return Names of all the entries listed in the archive index
+     * @throws IOException
+     */
+    public static List<String> readIndex(InputStream in) throws IOException {
+        ZipInputStream zip = in instanceof ZipInputStream ? (ZipInputStream) in : new ZipInputStream(in);
+        ZipEntry first = zip.getNextEntry();
+        if (first == null || !INDEX_ENTRY_NAME.equals(first.getName()))
+            throw new IOException("Archive does not start with an index");
+
+        JSONArray index = new JSONArray(IOUtils.toString(zip, "UTF-8"));
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < index.length(); i++)
+            names.add(index.getJSONObject(i).getString(indexName));
+        return names;
+    }
+
+    private static String checkEntryName(String name) {
+        // the index is written as an entry of its own, and a zip archive can't hold two entries of the same name
+        if (INDEX_ENTRY_NAME.equals(name))
+            throw new IllegalArgumentException("Reserved archive entry name: " + name);
+        return name;
+    }
+
+    protected static String toEntryName(Path relativePath) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : relativePath) {
+            if (name.length() > 0)
+                name.append('/');
+            name.append(part.toString());
+        }
+        return name.toString();
+    }
+}
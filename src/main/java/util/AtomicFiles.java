@@ -0,0 +1,117 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+
+/**
+ * The AtomicFiles class provides helper methods for saving files so that they only appear under their final name
+ * once they are complete. Data is written to a temporary file next to the target and renamed at the end
+ */
+public class AtomicFiles {
+
+    private static final int MAX_SUFFIX = 10000;
+
+    /**
+     * Copies a stream into a file. If reading the stream fails, the temporary file is deleted and the target is left
+     * untouched
+     * @param in Stream to copy. It is read to the end, but not closed
+     * @param target File to save the data into. An existing file is replaced
+     * @return Number of bytes copied
+     * @throws IOException
+     */
+    public static long copy(InputStream in, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, "." + target.getFileName(), ".part");
+        try {
+            long size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            move(temp, target);
+            return size;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies a stream into a new file, like copy, but never replaces an existing file. If the target exists, the
+     * data is saved as "name (1).ext", "name (2).ext" and so on
+     * @param in Stream to copy. It is read to the end, but not closed
+     * @param target File to save the data into, unless it exists
+     * @return Path the data was saved to
+     * @throws IOException
+     */
+    public static Path copyNew(InputStream in, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        String fileName = target.getFileName().toString();
+        Path temp = Files.createTempFile(parent, "." + fileName, ".part");
+        try {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            int dot = fileName.lastIndexOf('.');
+            String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+            String extension = dot > 0 ? fileName.substring(dot) : "";
+            for (int i = 0; i <= MAX_SUFFIX; i++) {
+                Path candidate = i == 0 ? parent.resolve(fileName) : parent.resolve(base + " (" + i + ")" + extension);
+                if (moveNew(temp, candidate))
+                    return candidate;
+            }
+            throw new FileAlreadyExistsException(target.toString(), null, "No free name left");
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Resolves a file name chosen by someone else, e.g. the sender of a file, against a folder, and makes sure that
+     * the result stays inside the folder
+     * @param folder Folder to save the file into
+     * @param name File name, possibly with sub-folders separated by '/'
+     * @return Normalized absolute path of the file
+     * @throws IOException if the name points outside of the folder, e.g. "../x" or an absolute path
+     */
+    public static Path resolveInside(Path folder, String name) throws IOException {
+        Path root = folder.toAbsolutePath().normalize();
+        Path target;
+        try {
+            target = root.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid file name: " + name, e);
+        }
+        if (!target.startsWith(root) || target.equals(root))
+            throw new IOException("File name points outside of the target folder: " + name);
+        return target;
+    }
+
+    /**
+     * Renames a file, atomically when the file system supports it
+     * @param source File to rename
+     * @param target New name. An existing file is replaced
+     * @throws IOException
+     */
+    public static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean moveNew(Path source, Path target) throws IOException {
+        try {
+            // a hard link is created atomically, and only if the target doesn't exist yet
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // the file system has no hard links, fall back to a move which checks the target first
+        }
+        try {
+            Files.move(source, target);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package util;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Cancellation class is a handle for stopping a transfer, either on request or when its deadline passes.
+ * Transfers check the handle between reads and writes, and register the resources they block on (HTTP connections),
+ * which are closed as soon as the handle is cancelled, so that a stalled transfer is released promptly.
+ * A stopped transfer fails with TransferCancelledException, or TransferTimeoutException when its deadline passed
+ */
+public class Cancellation {
+
+    /**
+     * Handle that is never cancelled and has no deadline
+     */
+    public static final Cancellation NONE = new Cancellation(0, false);
+
+    private static final ScheduledExecutorService TIMER = timer();
+
+    private final long deadlineNanos;
+    private final long timeoutMillis;
+    private final boolean cancellable;
+    private final List<Closeable> resources = new ArrayList<>();
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+    private ScheduledFuture<?> expiry;
+
+    /**
+     * Creates new Cancellation without a deadline
+     */
+    public Cancellation() {
+        this(0, true);
+    }
+
+    private Cancellation(long timeoutMillis, boolean cancellable) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * Creates new Cancellation which cancels itself when the timeout elapses
+     * @param timeoutMillis Time the transfer is allowed to take, starting now
+     * @return Cancellation
+     */
+    public static Cancellation withTimeout(long timeoutMillis) {
+        final Cancellation cancellation = new Cancellation(Math.max(1, timeoutMillis), true);
+        ScheduledFuture<?> expiry = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.expire();
+            }
+        }, cancellation.timeoutMillis, TimeUnit.MILLISECONDS);
+        synchronized (cancellation) {
+            cancellation.expiry = expiry;
+        }
+        return cancellation;
+    }
+
+    /**
+     * Stops the transfer: closes the resources it registered, and makes its next check fail
+     */
+    public void cancel() {
+        stop(false);
+    }
+
+    /**
+     * @return Whether the transfer was cancelled, or its deadline passed
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * @return Time left until the deadline in milliseconds, or Long.MAX_VALUE if there is no deadline
+     */
+    public long remainingMillis() {
+        if (this.timeoutMillis == 0)
+            return Long.MAX_VALUE;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Fails if the transfer has been stopped
+     * @throws TransferTimeoutException if the deadline has passed
+     * @throws TransferCancelledException if the transfer was cancelled
+     */
+    public void check() throws TransferCancelledException {
+        if (this.timeoutMillis != 0 && !this.cancelled && this.deadlineNanos - System.nanoTime() <= 0)
+            expire();
+        if (this.cancelled)
+            throw failure();
+    }
+
+    /**
+     * Replaces the failure of a stopped transfer with the reason it was stopped. Closing the resources of a
+     * transfer makes it fail with an unrelated error, e.g. "Socket closed"
+     * @param e Failure of the transfer
+     * @return TransferCancelledException or TransferTimeoutException caused by e if the transfer was stopped, e otherwise
+     */
+    public IOException failure(IOException e) {
+        if (!this.cancelled || e instanceof TransferCancelledException)
+            return e;
+        TransferCancelledException failure = failure();
+        failure.initCause(e);
+        return failure;
+    }
+
+    /**
+     * Registers a resource to close when the transfer is stopped. If it has already been stopped, the resource is
+     * closed right away
+     * @param resource Resource the transfer blocks on
+     */
+    public void onCancel(Closeable resource) {
+        if (!this.cancellable)
+            return;
+        synchronized (this) {
+            if (!this.cancelled) {
+                this.resources.add(resource);
+                return;
+            }
+        }
+        closeQuietly(resource);
+    }
+
+    /**
+     * Unregisters a resource once the transfer no longer uses it, so that a handle shared by many transfers only
+     * keeps the resources still in use
+     * @param resource Resource registered with onCancel, or a resource equal to it
+     */
+    public void removeOnCancel(Closeable resource) {
+        if (!this.cancellable)
+            return;
+        synchronized (this) {
+            this.resources.remove(resource);
+        }
+    }
+
+    /**
+     * Computes the timeout of a blocking operation, so that it doesn't last past the deadline
+     * @param timeoutMillis Timeout of the operation, or 0 for none
+     * @return Timeout in milliseconds, at least 1, or 0 for none
+     */
+    public int timeout(int timeoutMillis) {
+        long remaining = remainingMillis();
+        if (remaining == Long.MAX_VALUE)
+            return timeoutMillis;
+        int bounded = (int) Math.max(1, Math.min(remaining, Integer.MAX_VALUE));
+        return timeoutMillis == 0 ? bounded : Math.min(timeoutMillis, bounded);
+    }
+
+    /**
+     * Wraps a stream so that every read first checks that the transfer hasn't been stopped
+     * @param in Stream
+     * @return Checked stream
+     */
+    public InputStream wrap(InputStream in) {
+        if (!this.cancellable)
+            return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                check();
+                return this.in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                check();
+                return this.in.read(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream so that every write first checks that the transfer hasn't been stopped
+     * @param out Stream
+     * @return Checked stream
+     */
+    public OutputStream wrap(OutputStream out) {
+        if (!this.cancellable)
+            return out;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                check();
+                this.out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                check();
+                this.out.write(b, off, len);
+            }
+        };
+    }
+
+    private void expire() {
+        stop(true);
+    }
+
+    private void stop(boolean timedOut) {
+        if (!this.cancellable)
+            return;
+        List<Closeable> toClose;
+        synchronized (this) {
+            if (this.cancelled)
+                return;
+            this.timedOut = timedOut;
+            this.cancelled = true;
+            if (this.expiry != null)
+                this.expiry.cancel(false);
+            toClose = new ArrayList<>(this.resources);
+            this.resources.clear();
+        }
+        for (Closeable resource : toClose)
+            closeQuietly(resource);
+    }
+
+    private TransferCancelledException failure() {
+        if (this.timedOut)
+            return new TransferTimeoutException("Transfer deadline of " + this.timeoutMillis + " ms exceeded");
+        return new TransferCancelledException("Transfer cancelled");
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            // the transfer is failing anyway
+        }
+    }
+
+    private static ScheduledExecutorService timer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, ConcurrencyUtil.threadFactory("blindsend-deadline", Thread.NORM_PRIORITY));
+        // deadlines of transfers cancelled early don't stay queued until they pass
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
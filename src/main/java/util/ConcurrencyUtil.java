@@ -0,0 +1,73 @@
+package util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ConcurrencyUtil class provides helper methods for running parts of a file exchange on background threads
+ */
+public class ConcurrencyUtil {
+
+    /**
+     * Creates a factory of daemon threads, so that background work never keeps the JVM alive
+     * @param name Prefix of thread names
+     * @param priority Thread priority
+     * @return Thread factory
+     */
+    public static ThreadFactory threadFactory(final String name, final int priority) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Waits for a background task and returns its result. Exceptions thrown by the task are rethrown as they are
+     * @param future Background task
+     * @return Result of the task
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static <T> T await(Future<T> future) throws IOException, GeneralSecurityException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a background task");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof GeneralSecurityException)
+                throw (GeneralSecurityException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Cancels background tasks which are no longer needed. Tasks that have already completed are not affected
+     * @param futures Background tasks
+     */
+    public static void cancelAll(Future<?>... futures) {
+        for (Future<?> future : futures) {
+            if (future != null)
+                future.cancel(true);
+        }
+    }
+}
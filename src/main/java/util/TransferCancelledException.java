@@ -0,0 +1,19 @@
+package util;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a transfer is stopped because its Cancellation was cancelled
+ */
+public class TransferCancelledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new TransferCancelledException
+     * @param message Description of the cancellation
+     */
+    public TransferCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package util;
+
+/**
+ * Thrown when a transfer is stopped because its deadline has passed
+ */
+public class TransferTimeoutException extends TransferCancelledException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new TransferTimeoutException
+     * @param message Description of the deadline
+     */
+    public TransferTimeoutException(String message) {
+        super(message);
+    }
+}